@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.benchmark;
+
+import org.galibier.netty.OpenFlowDecoder;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the ByteBuffer based decoding path of OpenFlowDecoder with the zero-copy path
+ * that parses messages straight from the ChannelBuffer.
+ */
+public class DecoderBenchmark {
+    @Option(name = "-n", aliases = "--messages", usage = "Number of PACKET_IN messages decoded in an iteration")
+    private int messages = 100000;
+
+    @Option(name = "-i", aliases = "--iterations", usage = "Number of measured iterations")
+    private int iterations = 10;
+
+    @Option(name = "-w", aliases = "--warmup", usage = "Number of warm-up iterations")
+    private int warmup = 5;
+
+    @Option(name = "-m", aliases = "--message", usage = "Bytes of the payload of a packet in")
+    private int messageLength = 128;
+
+    @Option(name = "-d", aliases = "--direct", usage = "Use direct buffers for frames")
+    private boolean direct = false;
+
+    @Option(name = "-c", aliases = "--composite", usage = "Split each frame into a composite buffer of header and body")
+    private boolean composite = false;
+
+    @Option(name = "-h", aliases = "--help", usage = "Print this help")
+    private boolean help = false;
+
+    public void doMain(String[] args) {
+        CmdLineParser parser = new CmdLineParser(this);
+        parser.setUsageWidth(80);
+
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            help = true;
+        }
+
+        if (help) {
+            System.err.println("java DecoderBenchmark [option]");
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        ChannelBuffer frame = makeFrame();
+        for (int i = 0; i < warmup; i++) {
+            run(false, frame);
+            run(true, frame);
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            report("copy", run(false, frame));
+            report("zero-copy", run(true, frame));
+        }
+    }
+
+    private ChannelBuffer makeFrame() {
+        FakeSwitch fakeSwitch = new FakeSwitch(1, messageLength);
+        OFPacketIn packetIn = (OFPacketIn)fakeSwitch.packetInData();
+        packetIn.setLengthU(OFPacketIn.MINIMUM_LENGTH + messageLength);
+
+        ByteBuffer encoded = ByteBuffer.allocate(packetIn.getLengthU());
+        packetIn.writeTo(encoded);
+        encoded.flip();
+
+        ChannelBuffer frame = direct ?
+                ChannelBuffers.directBuffer(encoded.remaining()) : ChannelBuffers.buffer(encoded.remaining());
+        frame.writeBytes(encoded);
+        if (composite) {
+            frame = ChannelBuffers.wrappedBuffer(
+                    frame.slice(0, OFMessage.MINIMUM_LENGTH),
+                    frame.slice(OFMessage.MINIMUM_LENGTH, frame.readableBytes() - OFMessage.MINIMUM_LENGTH));
+        }
+
+        return frame;
+    }
+
+    private long[] run(boolean zeroCopy, ChannelBuffer frame) {
+        DecoderEmbedder<OFMessage> embedder = new DecoderEmbedder<OFMessage>(new OpenFlowDecoder(zeroCopy));
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long allocatedBefore = allocatedBytes(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            embedder.offer(frame.duplicate());
+            embedder.poll();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+        embedder.finish();
+
+        return new long[] {elapsed, allocated};
+    }
+
+    private long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private void report(String mode, long[] result) {
+        double nanosPerMessage = (double)result[0] / messages;
+        double throughput = (double)messages / (double)result[0] * 1.0e9;
+        double bytesPerMessage = (double)result[1] / messages;
+        System.out.println(String.format("%-10s %10.1f ns/msg %12.1f msgs/sec %10.1f bytes/msg",
+                mode, nanosPerMessage, throughput, bytesPerMessage));
+    }
+
+    public static void main(String[] args) {
+        new DecoderBenchmark().doMain(args);
+    }
+}
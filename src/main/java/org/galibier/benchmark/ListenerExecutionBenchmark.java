@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.benchmark;
+
+import org.galibier.util.KeyedSerialExecutor;
+import org.galibier.util.ShardedExecutor;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways Controller invokes listeners that block, e.g. waiting for a reply from a switch:
+ * inline on the I/O thread, on the dispatching shards, and on a thread per task executor (virtual threads
+ * when the JVM provides them) with and without ordering per switch.
+ */
+public class ListenerExecutionBenchmark {
+    @Option(name = "-n", aliases = "--events", usage = "Number of events in an iteration")
+    private int events = 2000;
+
+    @Option(name = "-s", aliases = "--switches", usage = "Number of switches sending the events")
+    private int switches = 64;
+
+    @Option(name = "-b", aliases = "--blocking", usage = "Milliseconds a listener blocks for each event")
+    private int blockingMillis = 5;
+
+    @Option(name = "-t", aliases = "--shards", usage = "Number of dispatching shards")
+    private int shards = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "-i", aliases = "--iterations", usage = "Number of measured iterations")
+    private int iterations = 3;
+
+    @Option(name = "-h", aliases = "--help", usage = "Print this help")
+    private boolean help = false;
+
+    private interface Dispatcher {
+        void dispatch(long dataPathId, Runnable task);
+    }
+
+    public void doMain(String[] args) throws InterruptedException {
+        CmdLineParser parser = new CmdLineParser(this);
+        parser.setUsageWidth(80);
+
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            help = true;
+        }
+
+        if (help) {
+            System.err.println("java ListenerExecutionBenchmark [option]");
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        final ShardedExecutor sharded = new ShardedExecutor(shards, "benchmark-shard-%d");
+        ExecutorService threadPerTask = threadPerTaskExecutor();
+        final KeyedSerialExecutor serial = new KeyedSerialExecutor(threadPerTask);
+        final ExecutorService unordered = threadPerTask;
+
+        for (int i = 0; i < iterations; i++) {
+            report("inline", run(new Dispatcher() {
+                @Override
+                public void dispatch(long dataPathId, Runnable task) {
+                    task.run();
+                }
+            }));
+            report("sharded", run(new Dispatcher() {
+                @Override
+                public void dispatch(long dataPathId, Runnable task) {
+                    sharded.execute(dataPathId, task);
+                }
+            }));
+            report("per-switch", run(new Dispatcher() {
+                @Override
+                public void dispatch(long dataPathId, Runnable task) {
+                    serial.execute(dataPathId, task);
+                }
+            }));
+            report("unordered", run(new Dispatcher() {
+                @Override
+                public void dispatch(long dataPathId, Runnable task) {
+                    unordered.execute(task);
+                }
+            }));
+        }
+
+        sharded.shutdown(1, TimeUnit.SECONDS);
+        threadPerTask.shutdown();
+    }
+
+    private static ExecutorService threadPerTaskExecutor() {
+        try {
+            //  available on JDK 21 or later
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            System.out.println("Thread per task executor: virtual threads");
+            return (ExecutorService)method.invoke(null);
+        } catch (Exception e) {
+            System.out.println("Thread per task executor: cached thread pool");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private long[] run(Dispatcher dispatcher) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(events);
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    //  stands for a listener waiting for a reply from the switch
+                    Thread.sleep(blockingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            dispatcher.dispatch(i % switches, listener);
+        }
+        //  how long the I/O thread is occupied by dispatching
+        long stalled = System.nanoTime() - start;
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        return new long[] {stalled, elapsed};
+    }
+
+    private void report(String mode, long[] result) {
+        double throughput = (double)events / (double)result[1] * 1.0e9;
+        System.out.println(String.format("%-10s %10.1f ms I/O thread %10.1f ms total %12.1f events/sec",
+                mode, result[0] / 1.0e6, result[1] / 1.0e6, throughput));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        new ListenerExecutionBenchmark().doMain(args);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.openflow.protocol.OFPacketIn;
+
+import java.util.List;
+
+/**
+ * A {@link SwitchEventListener} that receives PACKET IN messages in batches. The controller calls
+ * {@link #handlePacketIns(Switch, List)} instead of {@link #handlePacketIn(Switch, OFPacketIn)}
+ * for a listener implementing this interface.
+ */
+public interface BatchSwitchEventListener extends SwitchEventListener {
+    /**
+     * It is called when the controller receives PACKET IN messages from a switch. The messages are
+     * the ones received from one read of the connection, or the ones consumed from the ring buffer
+     * at once, in the order the switch sent them.
+     * @param sw The switch that sent the PACKET IN messages to the controller.
+     * @param msgs The unmodifiable list of PACKET IN messages that the controller receives.
+     */
+    public void handlePacketIns(Switch sw, List<OFPacketIn> msgs);
+}
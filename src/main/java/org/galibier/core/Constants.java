@@ -34,9 +34,11 @@ public class Constants {
     private Constants() {}
 
     public static final int MAXIMUM_PACKET_LENGTH = 65535;
+    public static final int TYPE_FIELD_OFFSET = 1;
     public static final int LENGTH_FIELD_OFFSET = 2;
     public static final int LENGTH_FIELD_LENGTH = 2;
     public static final int LENGTH_FIELD_MODIFICATION = -4;
+    public static final int XID_FIELD_OFFSET = 4;
 
     public static final int CONTROLLER_DEFAULT_PORT = 6633;
 
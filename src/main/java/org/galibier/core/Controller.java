@@ -26,21 +26,42 @@
 package org.galibier.core;
 
 import com.google.common.base.Preconditions;
+import org.galibier.netty.BufferArena;
+import org.galibier.netty.EncodedMessage;
+import org.galibier.netty.HandshakeLimiter;
 import org.galibier.netty.OpenFlowServerPipelineFactory;
+import org.galibier.util.KeyedSerialExecutor;
+import org.galibier.util.ShardedExecutor;
+import org.galibier.util.WaitStrategy;
+import org.galibier.util.WheelTimer;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.openflow.protocol.*;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.*;
 import java.util.concurrent.*;
 
 public class Controller {
     private static final Logger log = LoggerFactory.getLogger(Controller.class);
     private static final int DEFAULT_SWITCHES = 64;
+    private static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+    private static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+    private static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 4096;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+    private static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 30000;
+    private static final long DEFAULT_KEEPALIVE_IDLE_MILLIS = 5000;
+    private static final long DEFAULT_KEEPALIVE_MIN_TIMEOUT_MILLIS = 1000;
+    private static final long DEFAULT_KEEPALIVE_MAX_TIMEOUT_MILLIS = 10000;
+    private static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 3000;
+    private static final long WHEEL_TICK_MILLIS = 100;
+    private static final int WHEEL_TICKS = 512;
+    private static final double TIMER_JITTER = 0.1;
 
     private ChannelFactory factory;
     private ServerBootstrap bootstrap;
@@ -48,28 +69,95 @@ public class Controller {
     private final ConcurrentMap<Long, Switch> handshakedSwitches =
             new ConcurrentHashMap<Long, Switch>(DEFAULT_SWITCHES);
 
-    private final CopyOnWriteArrayList<SwitchEventListener> eventListeners =
-            new CopyOnWriteArrayList<SwitchEventListener>();
+    //  guarded by this, and compiled into routingTable on each change
+    private final LinkedHashMap<SwitchEventListener, Subscription> subscriptions =
+            new LinkedHashMap<SwitchEventListener, Subscription>();
+    private volatile EventRoutingTable routingTable = EventRoutingTable.EMPTY;
+    //  guarded by this, and sorted into processorChain on each change
+    private final LinkedHashMap<String, ProcessorChain.Node> processors =
+            new LinkedHashMap<String, ProcessorChain.Node>();
+    private volatile ProcessorChain processorChain = ProcessorChain.EMPTY;
+    private final CopyOnWriteArrayList<StatisticsPollListener> statisticsListeners =
+            new CopyOnWriteArrayList<StatisticsPollListener>();
     private final CopyOnWriteArrayList<VendorExtensionListener> vendorListeners =
             new CopyOnWriteArrayList<VendorExtensionListener>();
     private final ScheduledExecutorService timer =
             Executors.newSingleThreadScheduledExecutor();
+    //  periodic tasks of the connections
+    private final WheelTimer wheelTimer = new WheelTimer(WHEEL_TICK_MILLIS, WHEEL_TICKS, TIMER_JITTER);
+    //  direct buffers are written to the socket without being copied by Netty
+    private final BufferArena bufferArena = new BufferArena(true);
+
+    private volatile long coalescingMaxDelayMillis = -1;
+    private volatile int coalescingMaxBytes;
+    private volatile boolean lazyDecoding = true;
+
+    private volatile int writeBufferLowWaterMark = DEFAULT_WRITE_BUFFER_LOW_WATER_MARK;
+    private volatile int writeBufferHighWaterMark = DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK;
+    private volatile int outboundQueueCapacity = DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+    private volatile long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+    private volatile long handshakeTimeoutMillis = DEFAULT_HANDSHAKE_TIMEOUT_MILLIS;
+    private volatile HandshakeLimiter handshakeLimiter = new HandshakeLimiter(Integer.MAX_VALUE);
+    private volatile long keepaliveIdleMillis = DEFAULT_KEEPALIVE_IDLE_MILLIS;
+    private volatile long keepaliveMinTimeoutMillis = DEFAULT_KEEPALIVE_MIN_TIMEOUT_MILLIS;
+    private volatile long keepaliveMaxTimeoutMillis = DEFAULT_KEEPALIVE_MAX_TIMEOUT_MILLIS;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+    private final ConcurrentMap<Long, PacketInLimiter> packetInLimiters =
+            new ConcurrentHashMap<Long, PacketInLimiter>(DEFAULT_SWITCHES);
+    private volatile double defaultPacketInRate;
+    private volatile int defaultPacketInBurst;
+
+    private volatile int dispatchShards;
+    private volatile int dispatchQueueCapacity = ShardedExecutor.DEFAULT_QUEUE_CAPACITY;
+    private volatile ShardedExecutor dispatchExecutor;
+
+    private volatile int packetInRingSize;
+    private volatile WaitStrategy packetInWaitStrategy;
+    private volatile PacketInRing packetInRing;
+
+    private volatile Executor listenerExecutor;
+    private volatile boolean listenerOrderedPerSwitch;
+    private volatile KeyedSerialExecutor serialListenerExecutor;
+
+    private volatile long pollIntervalMillis;
+    private volatile long maxPollIntervalMillis;
+    private volatile int maxPollsPerSwitch;
+    private volatile int maxPolls;
+    private volatile EnumSet<OFStatisticsType> pollTypes;
+    private volatile StatisticsPoller statisticsPoller;
 
     /**
      * Starts the controller. The controller waits the connection from the switch on the port.
      * @param port The port number on which the controller listens
      */
     public void start(int port) {
+        if (listenerExecutor != null && listenerOrderedPerSwitch) {
+            serialListenerExecutor = new KeyedSerialExecutor(listenerExecutor);
+        } else if (listenerExecutor == null && dispatchShards > 0) {
+            dispatchExecutor = new ShardedExecutor(dispatchShards, dispatchQueueCapacity, "event-dispatch-%d");
+        }
+        if (packetInRingSize > 0) {
+            startPacketInRing();
+        }
+        if (pollIntervalMillis > 0) {
+            statisticsPoller = new StatisticsPoller(wheelTimer, Math.max(1, dispatchShards), dispatchQueueCapacity,
+                    statisticsListeners, pollTypes, pollIntervalMillis, maxPollIntervalMillis,
+                    maxPollsPerSwitch, maxPolls);
+        }
+
         factory = new NioServerSocketChannelFactory(
                 Executors.newCachedThreadPool(),
                 Executors.newCachedThreadPool());
         bootstrap = new ServerBootstrap(factory);
 
-        bootstrap.setPipelineFactory(new OpenFlowServerPipelineFactory(this, timer));
+        bootstrap.setPipelineFactory(new OpenFlowServerPipelineFactory(this, timer, wheelTimer));
         bootstrap.setOption("reuseAddress", true);
 
         bootstrap.setOption("child.tcpNoDelay", true);
         bootstrap.setOption("child.keepAlive", true);
+        bootstrap.setOption("child.writeBufferLowWaterMark", writeBufferLowWaterMark);
+        bootstrap.setOption("child.writeBufferHighWaterMark", writeBufferHighWaterMark);
 
         Channel channel = bootstrap.bind(new InetSocketAddress(port));
         log.info("Controller started: {}", channel.getLocalAddress());
@@ -83,23 +171,425 @@ public class Controller {
         for (Switch sw: handshakedSwitches.values()) {
             sw.stop();
         }
+        if (statisticsPoller != null) {
+            statisticsPoller.stop(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
         timer.shutdown();
+        wheelTimer.stop();
+        handshakeLimiter.stop();
+        if (packetInRing != null) {
+            packetInRing.stop();
+        }
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdown(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
         factory.releaseExternalResources();
     }
 
+    /**
+     * Returns the timer running the periodic tasks of the connections. Its metrics show how late
+     * the tasks fire.
+     * @return the timer shared by the connections
+     */
+    public WheelTimer wheelTimer() {
+        return wheelTimer;
+    }
+
+    /**
+     * Returns the arena providing the buffers of outbound messages. Its counters show
+     * how many buffers were allocated and how many were reused.
+     * @return the buffer arena used by the connections to the switches
+     */
+    public BufferArena bufferArena() {
+        return bufferArena;
+    }
+
+    /**
+     * Enables coalescing of outbound messages. Messages sent while a read from a switch is processed
+     * are written together at the end of the processing. Messages sent from other threads are held
+     * for at most the maximum delay. It must be called before {@link #start(int)}.
+     * @param maxDelayMillis The maximum time in milli sec a message is held, 0 to write immediately
+     *                       messages sent from other threads than the I/O threads
+     * @param maxBytes The pending bytes which cause the messages to be written immediately
+     */
+    public void setWriteCoalescing(long maxDelayMillis, int maxBytes) {
+        Preconditions.checkArgument(maxDelayMillis >= 0);
+        Preconditions.checkArgument(maxBytes > 0);
+
+        this.coalescingMaxDelayMillis = maxDelayMillis;
+        this.coalescingMaxBytes = maxBytes;
+    }
+
+    public boolean isWriteCoalescingEnabled() {
+        return coalescingMaxDelayMillis >= 0;
+    }
+
+    public long writeCoalescingMaxDelayMillis() {
+        return coalescingMaxDelayMillis;
+    }
+
+    public int writeCoalescingMaxBytes() {
+        return coalescingMaxBytes;
+    }
+
+    /**
+     * Enables or disables lazy decoding of PACKET_IN messages. When enabled, the listeners receive
+     * PACKET_IN messages whose packet data is copied out of the received bytes only when accessed,
+     * so listeners looking only at the fixed fields do not pay for the packet data.
+     * It must be called before {@link #start(int)}.
+     * @param lazyDecoding true to decode PACKET_IN messages lazily
+     */
+    public void setLazyDecoding(boolean lazyDecoding) {
+        this.lazyDecoding = lazyDecoding;
+    }
+
+    public boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
+    /**
+     * Sets the water marks of the bytes written but not yet sent to a switch. A switch becomes
+     * unwritable above the high water mark and writable again below the low water mark.
+     * It must be called before {@link #start(int)}.
+     * @param low The low water mark in bytes
+     * @param high The high water mark in bytes
+     */
+    public void setWriteBufferWaterMarks(int low, int high) {
+        Preconditions.checkArgument(0 <= low && low <= high, "Illegal water marks (low=%s, high=%s)", low, high);
+
+        this.writeBufferLowWaterMark = low;
+        this.writeBufferHighWaterMark = high;
+    }
+
+    /**
+     * Sets the number of messages queued for a switch while it is not writable and the policy
+     * applied when the queue is full. It must be called before {@link #start(int)}.
+     * @param capacity The number of messages queued per switch
+     * @param policy The overflow policy
+     */
+    public void setOutboundQueue(int capacity, OverflowPolicy policy) {
+        Preconditions.checkArgument(capacity > 0);
+        Preconditions.checkNotNull(policy);
+
+        this.outboundQueueCapacity = capacity;
+        this.overflowPolicy = policy;
+    }
+
+    public int outboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    /**
+     * Sets how long a request waits for its reply. A request without a reply by then is removed
+     * and its future is completed as timed out.
+     * @param timeoutMillis The timeout in milliseconds
+     */
+    public void setRequestTimeout(long timeoutMillis) {
+        Preconditions.checkArgument(timeoutMillis > 0);
+
+        this.requestTimeoutMillis = timeoutMillis;
+    }
+
+    public long requestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * Sets how long the handshake waits for FEATURES_REPLY and GET_CONFIG_REPLY before sending
+     * the requests again. The switch is disconnected after three attempts.
+     * @param timeoutMillis The timeout of each attempt in milliseconds
+     */
+    public void setHandshakeTimeout(long timeoutMillis) {
+        Preconditions.checkArgument(timeoutMillis > 0);
+
+        this.handshakeTimeoutMillis = timeoutMillis;
+    }
+
+    public long handshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    /**
+     * Limits the number of handshakes in progress, e.g. while all switches reconnect after a restart.
+     * Connections over the limit stop reading and wait in the order they were accepted.
+     * By default the number is not limited. It must be called before {@link #start(int)}.
+     * @param maxHandshakes The number of handshakes in progress at once
+     */
+    public void setMaxConcurrentHandshakes(int maxHandshakes) {
+        this.handshakeLimiter = new HandshakeLimiter(maxHandshakes);
+    }
+
+    /**
+     * Returns the limiter of the handshakes. It shows the handshakes in progress, the waiting connections,
+     * and the rates of accepted connections and completed handshakes.
+     * @return the handshake limiter
+     */
+    public HandshakeLimiter handshakeLimiter() {
+        return handshakeLimiter;
+    }
+
+    /**
+     * Sets how the liveness of the switches is checked. An ECHO_REQUEST is sent to a switch only when
+     * nothing has been received from it for the idle time, and the switch is disconnected if nothing is
+     * received before the timeout. The timeout adapts to the round trip times measured by the echoes
+     * (smoothed RTT + 4 * RTT variation) within the bounds, and is the maximum until the first echo reply.
+     * It must be called before {@link #start(int)}.
+     * @param idleMillis The idle time after which a switch is probed
+     * @param minTimeoutMillis The lower bound of the timeout for an echo reply
+     * @param maxTimeoutMillis The upper bound of the timeout for an echo reply
+     */
+    public void setKeepalive(long idleMillis, long minTimeoutMillis, long maxTimeoutMillis) {
+        Preconditions.checkArgument(idleMillis > 0);
+        Preconditions.checkArgument(minTimeoutMillis > 0 && minTimeoutMillis <= maxTimeoutMillis);
+
+        this.keepaliveIdleMillis = idleMillis;
+        this.keepaliveMinTimeoutMillis = minTimeoutMillis;
+        this.keepaliveMaxTimeoutMillis = maxTimeoutMillis;
+    }
+
+    public long keepaliveIdleMillis() {
+        return keepaliveIdleMillis;
+    }
+
+    public long keepaliveMinTimeoutMillis() {
+        return keepaliveMinTimeoutMillis;
+    }
+
+    public long keepaliveMaxTimeoutMillis() {
+        return keepaliveMaxTimeoutMillis;
+    }
+
+    public OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Limits the rate of PACKET_IN messages from every switch whose limit is not set individually.
+     * The limit applies to the switches connected afterwards.
+     * @param ratePerSecond The sustained number of PACKET_IN messages admitted per second
+     * @param burst The number of PACKET_IN messages admitted at once
+     */
+    public void setDefaultPacketInLimit(double ratePerSecond, int burst) {
+        Preconditions.checkArgument(ratePerSecond > 0);
+        Preconditions.checkArgument(burst > 0);
+
+        this.defaultPacketInBurst = burst;
+        this.defaultPacketInRate = ratePerSecond;
+    }
+
+    /**
+     * Limits the rate of PACKET_IN messages from the switch.
+     * @param dataPathId The datapath ID of the switch
+     * @param ratePerSecond The sustained number of PACKET_IN messages admitted per second
+     * @param burst The number of PACKET_IN messages admitted at once
+     */
+    public void setPacketInLimit(long dataPathId, double ratePerSecond, int burst) {
+        packetInLimiter(dataPathId).setLimit(ratePerSecond, burst);
+    }
+
+    /**
+     * Returns the admission control of PACKET_IN messages from the switch, which holds the counters
+     * of admitted and dropped PACKET_IN messages. It is kept across reconnections of the switch.
+     * @param dataPathId The datapath ID of the switch
+     * @return The PACKET_IN limiter of the switch
+     */
+    public PacketInLimiter packetInLimiter(long dataPathId) {
+        PacketInLimiter limiter = packetInLimiters.get(dataPathId);
+        if (limiter != null) {
+            return limiter;
+        }
+
+        limiter = new PacketInLimiter(dataPathId);
+        if (defaultPacketInRate > 0) {
+            limiter.setLimit(defaultPacketInRate, defaultPacketInBurst);
+        }
+        PacketInLimiter existing = packetInLimiters.putIfAbsent(dataPathId, limiter);
+        return existing != null ? existing : limiter;
+    }
+
+    /**
+     * Dispatches the events of the switches to the listeners on dedicated threads. Events of a switch
+     * are always handled by the same thread in the order they are received, and the events of the
+     * switches are distributed over the threads by the datapath IDs. When it is not set, the listeners
+     * are invoked on the I/O threads. It must be called before {@link #start(int)}.
+     * @param shards The number of dispatching threads, 0 to invoke the listeners on the I/O threads
+     */
+    public void setDispatchShards(int shards) {
+        setDispatchShards(shards, ShardedExecutor.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Dispatches the events of the switches to the listeners on dedicated threads as
+     * {@link #setDispatchShards(int)} does. When the events waiting for a thread reach the capacity, the I/O
+     * thread reading from the switch blocks until the listeners catch up, so slow listeners slow down
+     * the switches through TCP flow control rather than queueing events without limit.
+     * It must be called before {@link #start(int)}.
+     * @param shards The number of dispatching threads, 0 to invoke the listeners on the I/O threads
+     * @param queueCapacity The number of events waiting for each dispatching thread
+     */
+    public void setDispatchShards(int shards, int queueCapacity) {
+        Preconditions.checkArgument(shards >= 0);
+        Preconditions.checkArgument(queueCapacity > 0, "Queue capacity (%s) must be positive", queueCapacity);
+
+        this.dispatchShards = shards;
+        this.dispatchQueueCapacity = queueCapacity;
+    }
+
+    public int dispatchShards() {
+        return dispatchShards;
+    }
+
+    public int dispatchQueueCapacity() {
+        return dispatchQueueCapacity;
+    }
+
+    /**
+     * Invokes the listeners on the executor so that listeners may block, e.g. on
+     * {@link OFMessageFuture#getReply()}, without stalling the I/O threads. An executor creating a thread
+     * per task scales to many blocked listeners: Executors.newVirtualThreadPerTaskExecutor() on JDK 21 or later,
+     * otherwise Executors.newCachedThreadPool(). The executor is not shut down by the controller.
+     * It takes precedence over {@link #setDispatchShards(int)}, and must be called before {@link #start(int)}.
+     * @param executor The executor running the listeners, null to stop using an executor
+     * @param orderedPerSwitch If true, the events of a switch are handled one at a time in the order they are
+     *                         received. Otherwise each invocation runs independently, and a blocked listener
+     *                         does not delay the following events of the switch.
+     */
+    public void setListenerExecutor(Executor executor, boolean orderedPerSwitch) {
+        this.listenerExecutor = executor;
+        this.listenerOrderedPerSwitch = orderedPerSwitch;
+    }
+
+    public Executor listenerExecutor() {
+        return listenerExecutor;
+    }
+
+    /**
+     * Passes PACKET_IN messages to the listeners through a preallocated ring buffer. Each listener
+     * consumes the ring on its own thread and handles the PACKET_IN messages published while it was
+     * busy as a batch. PACKET_IN messages bypass the dispatching threads of {@link #setDispatchShards(int)},
+     * so they are not ordered with the other events of the switch. It must be called before {@link #start(int)}.
+     * @param size The number of slots of the ring buffer, which must be a power of two
+     * @param waitStrategy How the listener threads wait for PACKET_IN messages
+     */
+    public void setPacketInRing(int size, WaitStrategy waitStrategy) {
+        Preconditions.checkArgument(size > 0 && Integer.bitCount(size) == 1, "Size (%s) must be a power of two", size);
+        Preconditions.checkNotNull(waitStrategy);
+
+        this.packetInRingSize = size;
+        this.packetInWaitStrategy = waitStrategy;
+    }
+
+    /**
+     * Polls the statistics of every handshaken switch periodically and passes the replies to the listeners
+     * registered by {@link #addStatisticsListener(StatisticsPollListener)}. The polls of the switches are
+     * spread over the interval, and the interval of a switch is lengthened up to the maximum while its
+     * replies are slow. The listeners are invoked on dedicated threads, as many as the dispatch shards.
+     * It must be called before {@link #start(int)}.
+     * @param intervalMillis The interval between polls of a switch, 0 to disable polling
+     * @param maxIntervalMillis The upper bound of the interval of a slow switch
+     * @param maxPollsPerSwitch The maximum number of outstanding STATS_REQUESTs to a switch
+     * @param maxPolls The maximum number of outstanding STATS_REQUESTs to all switches
+     * @param types The statistics requested by each poll, out of DESC, FLOW, TABLE and PORT
+     */
+    public void setStatisticsPolling(long intervalMillis, long maxIntervalMillis, int maxPollsPerSwitch, int maxPolls,
+                                     OFStatisticsType... types) {
+        Preconditions.checkArgument(intervalMillis >= 0, "Interval (%s) must not be negative", intervalMillis);
+        Preconditions.checkArgument(intervalMillis == 0 || types.length > 0, "No statistics type is given");
+
+        this.pollIntervalMillis = intervalMillis;
+        this.maxPollIntervalMillis = maxIntervalMillis;
+        this.maxPollsPerSwitch = maxPollsPerSwitch;
+        this.maxPolls = maxPolls;
+        this.pollTypes = types.length == 0 ? EnumSet.noneOf(OFStatisticsType.class) : EnumSet.copyOf(Arrays.asList(types));
+    }
+
+    /**
+     * Returns the statistics poller, whose counters show how many polls were sent, skipped and failed.
+     * @return the poller, or null if polling is disabled or the controller is not started
+     */
+    public StatisticsPoller statisticsPoller() {
+        return statisticsPoller;
+    }
+
+    private synchronized void startPacketInRing() {
+        packetInRing = new PacketInRing(packetInRingSize, packetInWaitStrategy);
+        for (Map.Entry<SwitchEventListener, Subscription> entry: subscriptions.entrySet()) {
+            if (entry.getValue().matchesType(OFType.PACKET_IN)) {
+                packetInRing.addConsumer(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private boolean dispatchesInline() {
+        return dispatchExecutor == null && listenerExecutor == null;
+    }
+
+    private void dispatch(Switch sw, Runnable task) {
+        if (!sw.isHandshaken()) {
+            //  no datapath ID to pick the thread by, e.g. a PACKET_IN during the handshake.
+            //  Running inline keeps it ahead of the events dispatched after the handshake
+            task.run();
+            return;
+        }
+        KeyedSerialExecutor serial = serialListenerExecutor;
+        if (serial != null) {
+            serial.execute(sw.dataPathId(), new ListenerTask(task));
+            return;
+        }
+        Executor unordered = listenerExecutor;
+        if (unordered != null) {
+            unordered.execute(new ListenerTask(task));
+            return;
+        }
+
+        ShardedExecutor executor = dispatchExecutor;
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(sw.dataPathId(), new ListenerTask(task));
+        }
+    }
+
+    private static class ListenerTask implements Runnable {
+        private final Runnable task;
+
+        private ListenerTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                //  keep the dispatching thread for the other switches
+                log.warn("Exception occurred in an event listener", e);
+            }
+        }
+    }
+
     /**
      * For internal use. Invokes the event listeners for the event that a switch is connected.
      * It is called internally when a switch is connected to the switch.
      * @param sw The switch connected to the switch
      */
-    public void switchHandshaken(Switch sw) {
+    public void switchHandshaken(final Switch sw) {
         handshakedSwitches.put(sw.dataPathId(), sw);
-
-        //  TODO: is ordering of invocation of listeners needed ?
-        //  TODO: is concurrent invocation of listeners needed ?
-        for (SwitchEventListener listener: eventListeners) {
-            listener.switchConnected(sw);
+        if (statisticsPoller != null) {
+            statisticsPoller.add(sw);
         }
+
+        dispatch(sw, new Runnable() {
+            @Override
+            public void run() {
+                //  TODO: is ordering of invocation of listeners needed ?
+                for (EventRoutingTable.Route route: routingTable.all()) {
+                    if (route.subscription.matchesSwitch(sw)) {
+                        route.listener.switchConnected(sw);
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -107,14 +597,27 @@ public class Controller {
      * It is called internally when a switch is disconnected to the switch.
      * @param sw The switch disconnected from the switch
      */
-    public synchronized void switchDisconnected(Switch sw) {
+    public synchronized void switchDisconnected(final Switch sw) {
+        if (!sw.isHandshaken()) {
+            //  the listeners have not been told that the switch is connected
+            return;
+        }
         handshakedSwitches.remove(sw.dataPathId());
-
-        //  TODO: is ordering of invocation of listeners needed ?
-        //  TODO: is concurrent invocation of listeners needed ?
-        for (SwitchEventListener listener: eventListeners) {
-            listener.switchDisconnected(sw);
+        if (statisticsPoller != null) {
+            statisticsPoller.remove(sw);
         }
+
+        dispatch(sw, new Runnable() {
+            @Override
+            public void run() {
+                //  TODO: is ordering of invocation of listeners needed ?
+                for (EventRoutingTable.Route route: routingTable.all()) {
+                    if (route.subscription.matchesSwitch(sw)) {
+                        route.listener.switchDisconnected(sw);
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -122,21 +625,127 @@ public class Controller {
      * @param sw The switch that sent the PACKET_IN message
      * @param in The PACKET_IN message
      */
-    public void handlePacketIn(Switch sw, OFPacketIn in) {
-        for (SwitchEventListener listener: eventListeners) {
-            listener.handlePacketIn(sw, in);
+    public void handlePacketIn(final Switch sw, final OFPacketIn in) {
+        PacketInRing ring = packetInRing;
+        if (ring != null) {
+            //  the processors run before publishing since the ring buffer has a thread per listener
+            if (processorChain.process(sw, in) == Disposition.CONTINUE) {
+                ring.publish(sw, in);
+            }
+            return;
+        }
+        if (dispatchesInline()) {
+            firePacketIn(sw, in);
+            return;
+        }
+
+        dispatch(sw, new Runnable() {
+            @Override
+            public void run() {
+                firePacketIn(sw, in);
+            }
+        });
+    }
+
+    private void firePacketIn(Switch sw, OFPacketIn in) {
+        if (processorChain.process(sw, in) == Disposition.STOP) {
+            return;
+        }
+
+        for (EventRoutingTable.Route route: routingTable.packetIn(in)) {
+            if (!route.subscription.matchesPacketInExceptEtherType(sw, in)) {
+                continue;
+            }
+            if (route.listener instanceof BatchSwitchEventListener) {
+                ((BatchSwitchEventListener)route.listener).handlePacketIns(sw, Collections.singletonList(in));
+            } else {
+                route.listener.handlePacketIn(sw, in);
+            }
         }
     }
 
+    /**
+     * For internal use. Invokes the event listeners for PACKET_IN messages received from one read of a switch.
+     * {@link BatchSwitchEventListener}s receive them at once, and the other listeners one by one.
+     * @param sw The switch that sent the PACKET_IN messages
+     * @param ins The PACKET_IN messages
+     */
+    public void handlePacketIns(final Switch sw, List<OFPacketIn> ins) {
+        PacketInRing ring = packetInRing;
+        if (ring != null) {
+            for (OFPacketIn in: processorChain.process(sw, ins)) {
+                ring.publish(sw, in);
+            }
+            return;
+        }
+
+        final List<OFPacketIn> batch = Collections.unmodifiableList(ins);
+        if (dispatchesInline()) {
+            firePacketIns(sw, batch);
+            return;
+        }
+
+        dispatch(sw, new Runnable() {
+            @Override
+            public void run() {
+                firePacketIns(sw, batch);
+            }
+        });
+    }
+
+    private void firePacketIns(Switch sw, List<OFPacketIn> batch) {
+        List<OFPacketIn> ins = processorChain.process(sw, batch);
+        if (ins.isEmpty()) {
+            return;
+        }
+
+        for (EventRoutingTable.Route route: routingTable.packetIn()) {
+            List<OFPacketIn> matched = matchingPacketIns(route.subscription, sw, ins);
+            if (matched.isEmpty()) {
+                continue;
+            }
+            if (route.listener instanceof BatchSwitchEventListener) {
+                ((BatchSwitchEventListener)route.listener).handlePacketIns(sw, matched);
+            } else {
+                for (OFPacketIn in: matched) {
+                    route.listener.handlePacketIn(sw, in);
+                }
+            }
+        }
+    }
+
+    private static List<OFPacketIn> matchingPacketIns(Subscription subscription, Switch sw, List<OFPacketIn> ins) {
+        //  the list is copied only when some message does not match
+        List<OFPacketIn> matched = null;
+        for (int i = 0; i < ins.size(); i++) {
+            OFPacketIn in = ins.get(i);
+            if (subscription.matchesPacketIn(sw, in)) {
+                if (matched != null) {
+                    matched.add(in);
+                }
+            } else if (matched == null) {
+                matched = new ArrayList<OFPacketIn>(ins.subList(0, i));
+            }
+        }
+        return matched == null ? ins : Collections.unmodifiableList(matched);
+    }
+
     /**
      * For internal use. Invokes the event listeners for the event that the controller receives a FLOW_REMOVED message.
      * @param sw The switch that sent the FLOW_REMOVED message
      * @param in The FLOW_REMOVED message
      */
-    public void handleFlowRemoved(Switch sw, OFFlowRemoved in) {
-        for (SwitchEventListener listener: eventListeners) {
-            listener.handleFlowRemoved(sw, in);
-        }
+    public void handleFlowRemoved(final Switch sw, final OFFlowRemoved in) {
+        dispatch(sw, new Runnable() {
+            @Override
+            public void run() {
+                for (EventRoutingTable.Route route: routingTable.flowRemoved()) {
+                    if (route.subscription.matchesSwitch(sw)) {
+                        route.listener.handleFlowRemoved(sw, in);
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -144,10 +753,19 @@ public class Controller {
      * @param sw The switch that sent the PORT_STATUS message
      * @param in The PORT_STATUS message
      */
-    public void handlePortStatus(Switch sw, OFPortStatus in) {
-        for (SwitchEventListener listener: eventListeners) {
-            listener.handlePortStatus(sw, in);
-        }
+    public void handlePortStatus(final Switch sw, final OFPortStatus in) {
+        //  the listeners see the port table after the change
+        sw.applyPortStatus(in);
+        dispatch(sw, new Runnable() {
+            @Override
+            public void run() {
+                for (EventRoutingTable.Route route: routingTable.portStatus()) {
+                    if (route.subscription.matchesSwitch(sw)) {
+                        route.listener.handlePortStatus(sw, in);
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -162,23 +780,120 @@ public class Controller {
     }
 
     /**
-     * Registers the event listener to the controller.
+     * Registers the event listener to the controller. The listener receives all events.
      * @param listener The event listener to be registered
      */
     public void addEventListener(SwitchEventListener listener) {
+        addEventListener(listener, Subscription.all());
+    }
+
+    /**
+     * Registers the event listener to the controller. The listener receives only the events matching
+     * the subscription. If the listener is already registered, its subscription is replaced.
+     * @param listener The event listener to be registered
+     * @param subscription The events the listener is interested in
+     */
+    public synchronized void addEventListener(SwitchEventListener listener, Subscription subscription) {
         Preconditions.checkNotNull(listener);
+        Preconditions.checkNotNull(subscription);
 
-        eventListeners.addIfAbsent(listener);
+        Subscription previous = subscriptions.put(listener, subscription);
+        routingTable = new EventRoutingTable(subscriptions);
+        if (packetInRing != null) {
+            if (previous != null) {
+                packetInRing.removeConsumer(listener);
+            }
+            if (subscription.matchesType(OFType.PACKET_IN)) {
+                packetInRing.addConsumer(listener, subscription);
+            }
+        }
     }
 
     /**
      * Unregisters the event listener from the controller.
      * @param listener The event listener to be unregisteed
      */
-    public void removeEventListener(SwitchEventListener listener) {
+    public synchronized void removeEventListener(SwitchEventListener listener) {
+        Preconditions.checkNotNull(listener);
+
+        if (subscriptions.remove(listener) == null) {
+            return;
+        }
+        routingTable = new EventRoutingTable(subscriptions);
+        if (packetInRing != null) {
+            packetInRing.removeConsumer(listener);
+        }
+    }
+
+    /**
+     * Registers a PACKET_IN processor to the controller. Processors run in order before the event listeners,
+     * and a processor returning {@link Disposition#STOP} hides the message from the following processors and
+     * the listeners. Constraints may name processors that are registered later. A processor throwing an exception
+     * is logged and treated as returning {@link Disposition#CONTINUE}. Processors run where the listeners run,
+     * except with {@link #setPacketInRing(int, WaitStrategy)}: then they run on the I/O threads before the message
+     * is published to the ring, so that a STOP hides the message from every listener thread, and they must
+     * neither block nor do heavy work.
+     * @param name The unique name of the processor
+     * @param processor The processor to be registered
+     * @param after The names of the processors that must run before this processor
+     * @param before The names of the processors that must run after this processor
+     * @throws IllegalArgumentException if the name is already used or the constraints become cyclic
+     */
+    public synchronized void addPacketInProcessor(String name, PacketInProcessor processor,
+                                                  Collection<String> after, Collection<String> before) {
+        Preconditions.checkNotNull(name);
+        Preconditions.checkNotNull(processor);
+        Preconditions.checkArgument(!processors.containsKey(name), "Processor %s is already registered", name);
+
+        processors.put(name, new ProcessorChain.Node(name, processor, after, before));
+        try {
+            processorChain = ProcessorChain.sort(new ArrayList<ProcessorChain.Node>(processors.values()));
+        } catch (IllegalArgumentException e) {
+            processors.remove(name);
+            throw e;
+        }
+    }
+
+    /**
+     * Registers a PACKET_IN processor without ordering constraints. It runs after the processors
+     * registered before it unless their constraints say otherwise.
+     * @param name The unique name of the processor
+     * @param processor The processor to be registered
+     */
+    public void addPacketInProcessor(String name, PacketInProcessor processor) {
+        addPacketInProcessor(name, processor, Collections.<String>emptySet(), Collections.<String>emptySet());
+    }
+
+    /**
+     * Unregisters the PACKET_IN processor from the controller.
+     * @param name The name of the processor to be unregistered
+     */
+    public synchronized void removePacketInProcessor(String name) {
+        Preconditions.checkNotNull(name);
+
+        if (processors.remove(name) != null) {
+            processorChain = ProcessorChain.sort(new ArrayList<ProcessorChain.Node>(processors.values()));
+        }
+    }
+
+    /**
+     * Registers the listener receiving the statistics polled by the controller.
+     * @param listener The statistics listener to be registered
+     */
+    public void addStatisticsListener(StatisticsPollListener listener) {
+        Preconditions.checkNotNull(listener);
+
+        statisticsListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Unregisters the statistics listener from the controller.
+     * @param listener The statistics listener to be unregistered
+     */
+    public void removeStatisticsListener(StatisticsPollListener listener) {
         Preconditions.checkNotNull(listener);
 
-        eventListeners.remove(listener);
+        statisticsListeners.remove(listener);
     }
 
     /**
@@ -215,4 +930,29 @@ public class Controller {
             lookup.send(msg);
         }
     }
+
+    /**
+     * Sends the message to the switches. The message is serialized once, and every switch receives
+     * the same body with its own XID, so neither the message nor the serialized body is modified
+     * by the writes. Switches already disconnected from the controller are skipped.
+     * @param msg The message whose length is set
+     * @param switches The switches to which the message is sent
+     * @return The future completing when the message is written to, or answered by, all the switches
+     */
+    public MulticastFuture multicast(OFMessage msg, Collection<Switch> switches) {
+        Preconditions.checkNotNull(msg);
+        Preconditions.checkNotNull(switches);
+
+        EncodedMessage encoded = EncodedMessage.of(msg);
+        Map<Switch, OFMessageFuture> futures = new LinkedHashMap<Switch, OFMessageFuture>();
+        for (Switch sw: switches) {
+            Switch lookup = handshakedSwitches.get(sw.dataPathId());
+            if (lookup == null) {
+                log.warn("Switch (DPID={}) is already disconnected from the controller", sw.dataPathId());
+            } else {
+                futures.put(lookup, lookup.send(encoded));
+            }
+        }
+        return new MulticastFuture(futures);
+    }
 }
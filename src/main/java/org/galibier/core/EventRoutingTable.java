@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.galibier.netty.LazyPacketIn;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+
+import java.util.*;
+
+/**
+ * Immutable table routing each event to the listeners subscribing to it. It is rebuilt whenever
+ * a listener is added or removed, so that dispatching an event only looks up the listeners of
+ * its message type, and of its EtherType for a PACKET_IN message.
+ */
+final class EventRoutingTable {
+    static final EventRoutingTable EMPTY = new EventRoutingTable(new LinkedHashMap<SwitchEventListener, Subscription>());
+    private static final Route[] NO_ROUTES = new Route[0];
+
+    private final Route[] all;
+    private final Route[] flowRemoved;
+    private final Route[] portStatus;
+    private final Route[] packetIn;
+    //  PACKET_IN routes for the EtherTypes some listener subscribes to, including the routes of any EtherType
+    private final Map<Integer, Route[]> packetInByEtherType;
+    //  PACKET_IN routes of any EtherType
+    private final Route[] packetInOfAnyEtherType;
+
+    static final class Route {
+        final SwitchEventListener listener;
+        final Subscription subscription;
+
+        private Route(SwitchEventListener listener, Subscription subscription) {
+            this.listener = listener;
+            this.subscription = subscription;
+        }
+    }
+
+    EventRoutingTable(LinkedHashMap<SwitchEventListener, Subscription> subscriptions) {
+        List<Route> all = new ArrayList<Route>();
+        for (Map.Entry<SwitchEventListener, Subscription> entry: subscriptions.entrySet()) {
+            all.add(new Route(entry.getKey(), entry.getValue()));
+        }
+        this.all = all.toArray(NO_ROUTES);
+        this.flowRemoved = select(all, OFType.FLOW_REMOVED);
+        this.portStatus = select(all, OFType.PORT_STATUS);
+        this.packetIn = select(all, OFType.PACKET_IN);
+
+        Set<Integer> etherTypes = new HashSet<Integer>();
+        List<Route> anyEtherType = new ArrayList<Route>();
+        for (Route route: packetIn) {
+            if (route.subscription.hasEtherTypes()) {
+                for (int etherType: route.subscription.etherTypeArray()) {
+                    etherTypes.add(etherType);
+                }
+            } else {
+                anyEtherType.add(route);
+            }
+        }
+        this.packetInOfAnyEtherType = anyEtherType.toArray(NO_ROUTES);
+
+        Map<Integer, Route[]> byEtherType = new HashMap<Integer, Route[]>();
+        for (int etherType: etherTypes) {
+            List<Route> routes = new ArrayList<Route>();
+            for (Route route: packetIn) {
+                if (route.subscription.matchesEtherType(etherType)) {
+                    routes.add(route);
+                }
+            }
+            byEtherType.put(etherType, routes.toArray(NO_ROUTES));
+        }
+        this.packetInByEtherType = byEtherType;
+    }
+
+    private static Route[] select(List<Route> routes, OFType type) {
+        List<Route> selected = new ArrayList<Route>();
+        for (Route route: routes) {
+            if (route.subscription.matchesType(type)) {
+                selected.add(route);
+            }
+        }
+        return selected.toArray(NO_ROUTES);
+    }
+
+    Route[] all() {
+        return all;
+    }
+
+    Route[] flowRemoved() {
+        return flowRemoved;
+    }
+
+    Route[] portStatus() {
+        return portStatus;
+    }
+
+    /**
+     * Returns the routes subscribing to PACKET_IN messages regardless of their EtherType.
+     */
+    Route[] packetIn() {
+        return packetIn;
+    }
+
+    /**
+     * Returns the routes that may match the PACKET_IN message. The EtherType is decoded only if
+     * some listener subscribes to specific EtherTypes.
+     */
+    Route[] packetIn(OFPacketIn in) {
+        if (packetInByEtherType.isEmpty()) {
+            return packetInOfAnyEtherType;
+        }
+        Route[] routes = packetInByEtherType.get(LazyPacketIn.etherTypeOf(in));
+        return routes != null ? routes : packetInOfAnyEtherType;
+    }
+}
@@ -25,9 +25,12 @@
 
 package org.galibier.core;
 
+import org.galibier.netty.EncodedMessage;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFStatisticsRequest;
 
 import java.net.InetSocketAddress;
+import java.util.List;
 
 public interface MessageDispatcher {
     /**
@@ -37,11 +40,63 @@ public interface MessageDispatcher {
      */
     OFMessageFuture send(OFMessage msg);
 
+    /**
+     * MessageDispatcher sends the encoded message to the corresponding switch with a new XID
+     * @param msg The message encoded once for many switches
+     * @return Future of the message
+     */
+    OFMessageFuture send(EncodedMessage msg);
+
+    /**
+     * MessageDispatcher sends the STATS_REQUEST to the corresponding switch
+     * @param request The STATS_REQUEST
+     * @param callback The callback receiving each part of the reply, or null to aggregate the parts
+     * @return Future of the whole reply
+     */
+    OFStatisticsFuture sendStatistics(OFStatisticsRequest request, StatisticsCallback callback);
+
+    /**
+     * MessageDispatcher sends the messages with consecutive XIDs followed by a BARRIER_REQUEST
+     * @param msgs The messages sent to the corresponding switch
+     * @return Future of the BARRIER_REQUEST, which fails on an ERROR answering any of the messages
+     */
+    OFMessageFuture sendBatch(List<OFMessage> msgs);
+
     /**
      * Tell the MessageDispatcher to stop
      */
     void stop();
 
+    /**
+     * Returns true if a message sent now is written without being queued
+     * @return true if the channel to the switch is below its write water mark
+     */
+    boolean isWritable();
+
+    /**
+     * Returns the number of messages waiting for the channel to become writable
+     * @return the number of queued messages
+     */
+    int queuedMessages();
+
+    /**
+     * Returns the number of messages dropped because the outbound queue was full
+     * @return the number of dropped messages
+     */
+    long droppedMessages();
+
+    /**
+     * Returns the number of requests whose reply was not received before their deadline
+     * @return the number of expired requests
+     */
+    long expiredRequests();
+
+    /**
+     * Returns the time from the connection until both FEATURES_REPLY and GET_CONFIG_REPLY are received
+     * @return the handshake time in nanoseconds, or -1 if the handshake is not completed
+     */
+    long handshakeNanos();
+
     InetSocketAddress remoteAddress();
 
     InetSocketAddress localAddress();
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.openflow.protocol.OFMessage;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Future of a message sent to many switches. It completes when the futures of all switches complete,
+ * with the replies by the switches for a request and with null replies otherwise. It fails with
+ * the cause of the first failed switch; the futures of the individual switches tell which switches failed.
+ */
+public class MulticastFuture extends AbstractListenableFuture<Map<Switch, OFMessage>> {
+    private final ImmutableMap<Switch, OFMessageFuture> futures;
+    private final AtomicInteger remaining;
+
+    /**
+     * Creates the future completing with the futures.
+     * @param futures the futures of the message by the switches
+     */
+    public MulticastFuture(Map<Switch, OFMessageFuture> futures) {
+        this.futures = ImmutableMap.copyOf(futures);
+        this.remaining = new AtomicInteger(this.futures.size());
+        if (this.futures.isEmpty()) {
+            set(ImmutableMap.<Switch, OFMessage>of());
+            return;
+        }
+
+        Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                if (remaining.decrementAndGet() == 0) {
+                    complete();
+                }
+            }
+        };
+        for (OFMessageFuture future: this.futures.values()) {
+            future.addListener(countDown, MoreExecutors.sameThreadExecutor());
+        }
+    }
+
+    /**
+     * Returns the futures of the message by the switches.
+     * @return the unmodifiable map from the switches to the futures
+     */
+    public Map<Switch, OFMessageFuture> futures() {
+        return futures;
+    }
+
+    private void complete() {
+        //  an ImmutableMap does not accept the null replies of non-request messages
+        Map<Switch, OFMessage> replies = new LinkedHashMap<Switch, OFMessage>();
+        for (Map.Entry<Switch, OFMessageFuture> entry: futures.entrySet()) {
+            OFMessageFuture future = entry.getValue();
+            Throwable cause = future.getCause();
+            if (cause != null) {
+                setException(cause);
+                return;
+            }
+            replies.put(entry.getKey(), future.isCancelled() ? null : future.getReply());
+        }
+        set(Collections.unmodifiableMap(replies));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.openflow.protocol.OFError;
+
+/**
+ * Thrown when a switch answers a request with an ERROR message.
+ */
+public class OFErrorException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final OFError error;
+
+    public OFErrorException(OFError error) {
+        super(String.format("Switch replied with an error (type=%d, code=%d, xid=%d)",
+                error.getErrorType(), error.getErrorCode(), error.getXid()));
+        this.error = error;
+    }
+
+    /**
+     * Returns the ERROR message sent by the switch.
+     * @return the ERROR message
+     */
+    public OFError getError() {
+        return error;
+    }
+}
@@ -25,64 +25,214 @@
 
 package org.galibier.core;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractListenableFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-public class OFMessageFuture {
-    private final OFMessage message;
+/**
+ * Future of a message sent to a switch. The future of a request is completed by its reply, and the
+ * future of any other message by the completion of the write with a null reply. It fails if the message
+ * is not written, the channel is closed before the reply, the switch replies with an ERROR message
+ * ({@link OFErrorException}) or the request times out ({@link TimeoutException}).
+ *
+ * Waiting threads are parked, and listeners added by {@link #addListener(Runnable, java.util.concurrent.Executor)}
+ * run when the future completes.
+ */
+public class OFMessageFuture extends AbstractListenableFuture<OFMessage> {
+    private final OFType type;
+    private final int xid;
     private final ChannelFuture requestFuture;
-    private final AtomicReference<OFMessage> reply = new AtomicReference<OFMessage>();
 
     public OFMessageFuture(OFMessage message, ChannelFuture requestFuture) {
-        Preconditions.checkNotNull(message);
+        this(Preconditions.checkNotNull(message).getType(), message.getXid(), requestFuture);
+    }
+
+    /**
+     * Creates a future of a message sent without an OFMessage instance, e.g. a pre-encoded message.
+     * @param type the type of the sent message
+     * @param xid the transaction ID of the sent message
+     * @param requestFuture the future of the write, or null if the message was not written
+     */
+    public OFMessageFuture(OFType type, int xid, ChannelFuture requestFuture) {
+        Preconditions.checkNotNull(type);
 
-        this.message = message;
+        this.type = type;
+        this.xid = xid;
         this.requestFuture = requestFuture;
+
+        if (requestFuture == null) {
+            setFailure(new ClosedChannelException());
+            return;
+        }
+        requestFuture.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    Throwable cause = future.getCause();
+                    setFailure(cause != null ? cause : new IOException("Message was not written"));
+                } else if (!isRequest()) {
+                    set(null);
+                }
+            }
+        });
     }
 
     public boolean isRequest() {
-        return Constants.REQUEST_TYPE.contains(message.getType());
+        return Constants.REQUEST_TYPE.contains(type);
     }
 
-    public boolean isDone() {
-        if (requestFuture != null) {
-            return requestFuture.isDone();
-        } else {
-            return false;
-        }
+    /**
+     * Returns true if the message has been written to the channel.
+     * @return true if the write succeeded
+     */
+    public boolean isWritten() {
+        return requestFuture != null && requestFuture.isSuccess();
+    }
+
+    public OFType type() {
+        return type;
     }
 
     public int transactionId() {
-        return message.getXid();
+        return xid;
     }
 
-    public OFMessage getReply() {
-        while (reply.get() == null) {
+    /**
+     * Returns the reason of the failure.
+     * @return the cause, or null if the future has not failed
+     */
+    public Throwable getCause() {
+        if (!isDone() || isCancelled()) {
+            return null;
+        }
+        try {
+            get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            //  never happens since the future is done
+            Thread.currentThread().interrupt();
+            return null;
         }
+    }
 
-        return reply.get();
+    /**
+     * Returns true if no reply was received before the deadline of the request.
+     * @return true if the request has timed out
+     */
+    public boolean isTimedOut() {
+        return getCause() instanceof TimeoutException;
     }
 
+    /**
+     * Returns the reply, waiting for it without being interrupted.
+     * @return the reply, or null if the future failed or the message is not a request
+     */
+    public OFMessage getReply() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return null;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the reply, waiting for it at most for the timeout without being interrupted.
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return the reply, or null if the future failed, timed out or the message is not a request
+     */
     public OFMessage getReply(long timeoutMillis) {
-        long start = System.currentTimeMillis();
-        while (true) {
-            long current = System.currentTimeMillis();
-            long diff = current - start;
-            if (diff > timeoutMillis || reply.get() != null) {
-                return reply.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    return null;
+                } catch (TimeoutException e) {
+                    return null;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
     }
 
+    /**
+     * Returns a future of the reply converted by the function. The function runs in the thread
+     * completing this future.
+     * @param function the function converting the reply
+     * @param <T> the type of the converted reply
+     * @return the future of the converted reply
+     */
+    public <T> ListenableFuture<T> transform(Function<? super OFMessage, ? extends T> function) {
+        return Futures.transform(this, function);
+    }
+
+    /**
+     * Returns a future completed by the future that the function returns for the reply, e.g.
+     * the future of a request sent after this one is answered.
+     * @param function the function returning the next future
+     * @param <T> the type of the next future
+     * @return the future completed by the next future
+     */
+    public <T> ListenableFuture<T> chain(Function<? super OFMessage, ? extends ListenableFuture<? extends T>> function) {
+        return Futures.chain(this, function);
+    }
+
     public void setReply(OFMessage msg) {
         Preconditions.checkState(
-                isRequest(), "Message (%s) is not a request type message", message.getType());
+                isRequest(), "Message (%s) is not a request type message", type);
         Preconditions.checkArgument(
                 Constants.REPLY_TYPE.contains(msg.getType()), "Reply (%s) is not a reply type message", msg.getType());
 
-        reply.set(msg);
+        set(msg);
+    }
+
+    /**
+     * Tells that the reply was not received before the deadline of the request.
+     */
+    public void setTimedOut() {
+        setFailure(new TimeoutException(String.format("No reply to %s (xid=%d)", type, xid)));
+    }
+
+    /**
+     * Fails the future unless it has already been completed.
+     * @param cause the reason of the failure
+     * @return true if the future was failed by this call
+     */
+    public boolean setFailure(Throwable cause) {
+        Preconditions.checkNotNull(cause);
+
+        return setException(cause);
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.statistics.OFStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Future of a STATS_REQUEST whose reply may be split into multiple STATS_REPLY messages with
+ * the "more" flag. Without a callback, the statistics of all parts are aggregated and the future
+ * completes with a single STATS_REPLY carrying them. The header of the aggregate, including its
+ * length, is the one of the first part, since the total length of a large reply does not fit in
+ * the 16-bit length field. With a callback, each part is passed to the callback as it arrives without
+ * being kept, and the future completes with the last part. A callback throwing an exception fails the future.
+ */
+public class OFStatisticsFuture extends OFMessageFuture {
+    /**
+     * OFPSF_REPLY_MORE in the flags of STATS_REPLY.
+     */
+    public static final short REPLY_MORE = 0x0001;
+    static final int HEADER_LENGTH = 12;
+
+    private final StatisticsCallback callback;
+    //  guarded by this
+    private OFStatisticsReply aggregate;
+    private List<OFStatistics> statistics;
+    private int parts;
+
+    /**
+     * Creates a future of a STATS_REQUEST.
+     * @param xid the transaction ID of the request
+     * @param requestFuture the future of the write, or null if the request was not written
+     * @param callback the callback receiving each part, or null to aggregate the parts
+     */
+    public OFStatisticsFuture(int xid, ChannelFuture requestFuture, StatisticsCallback callback) {
+        super(OFType.STATS_REQUEST, xid, requestFuture);
+        this.callback = callback;
+    }
+
+    /**
+     * Returns true if the parts are passed to a callback instead of being aggregated.
+     * @return true if the reply is streamed
+     */
+    public boolean isStreaming() {
+        return callback != null;
+    }
+
+    /**
+     * Returns the number of parts received so far.
+     * @return the number of STATS_REPLY messages
+     */
+    public synchronized int parts() {
+        return parts;
+    }
+
+    /**
+     * For internal use. Adds a part of the reply, and completes the future with the last part.
+     * Parts arriving after the future has failed are ignored.
+     * @param part the STATS_REPLY
+     * @return true if it was the last part
+     */
+    public boolean addPart(OFStatisticsReply part) {
+        boolean last = (part.getFlags() & REPLY_MORE) == 0;
+        if (isDone()) {
+            return last;
+        }
+        if (callback != null) {
+            synchronized (this) {
+                parts++;
+            }
+            try {
+                callback.handleStatisticsReply(part);
+            } catch (RuntimeException e) {
+                //  the callback belongs to an application and runs on the I/O thread
+                setFailure(e);
+                return last;
+            }
+            if (last) {
+                setReply(part);
+            }
+            return last;
+        }
+
+        OFStatisticsReply reply;
+        synchronized (this) {
+            parts++;
+            if (aggregate == null) {
+                aggregate = part;
+                statistics = new ArrayList<OFStatistics>(part.getStatistics());
+            } else {
+                statistics.addAll(part.getStatistics());
+            }
+            if (!last) {
+                return false;
+            }
+            aggregate.setStatistics(statistics);
+            aggregate.setFlags((short)0);
+            reply = aggregate;
+        }
+        setReply(reply);
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import com.google.common.base.Preconditions;
+import org.galibier.util.TokenBucket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control of PACKET_IN messages from a switch. PACKET_IN messages exceeding the rate
+ * and the burst of the token bucket are dropped, or only one in every N of them is admitted
+ * when sampling is set.
+ */
+public class PacketInLimiter {
+    private final long dataPathId;
+    private volatile TokenBucket bucket;
+    private volatile int sampling;
+    private final AtomicLong excess = new AtomicLong();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates an unlimited limiter.
+     * @param dataPathId the datapath ID of the switch
+     */
+    public PacketInLimiter(long dataPathId) {
+        this.dataPathId = dataPathId;
+    }
+
+    public long dataPathId() {
+        return dataPathId;
+    }
+
+    /**
+     * Limits the rate of PACKET_IN messages.
+     * @param ratePerSecond the sustained number of PACKET_IN messages admitted per second
+     * @param burst the number of PACKET_IN messages admitted at once
+     */
+    public void setLimit(double ratePerSecond, int burst) {
+        this.bucket = new TokenBucket(ratePerSecond, burst);
+    }
+
+    /**
+     * Removes the limit of the rate.
+     */
+    public void removeLimit() {
+        this.bucket = null;
+    }
+
+    public boolean isLimited() {
+        return bucket != null;
+    }
+
+    /**
+     * Admits one in every N PACKET_IN messages exceeding the limit instead of dropping all of them.
+     * @param oneInN N, or 0 to drop all exceeding PACKET_IN messages
+     */
+    public void setSampling(int oneInN) {
+        Preconditions.checkArgument(oneInN >= 0);
+
+        this.sampling = oneInN;
+    }
+
+    /**
+     * Decides whether a PACKET_IN message is passed to the controller.
+     * @return true if the PACKET_IN message is admitted
+     */
+    public boolean admit() {
+        TokenBucket current = bucket;
+        boolean admit = current == null || current.tryConsume() || sampled();
+        if (admit) {
+            admitted.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+        return admit;
+    }
+
+    private boolean sampled() {
+        int n = sampling;
+        return n > 0 && excess.incrementAndGet() % n == 0;
+    }
+
+    public long admittedCount() {
+        return admitted.get();
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+}
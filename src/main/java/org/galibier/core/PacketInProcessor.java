@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.openflow.protocol.OFPacketIn;
+
+/**
+ * A step of the ordered chain processing PACKET IN messages before the event listeners.
+ * Processors are registered with {@link Controller#addPacketInProcessor(String, PacketInProcessor, java.util.Collection, java.util.Collection)}.
+ */
+public interface PacketInProcessor {
+    /**
+     * It is called when the controller receives a PACKET IN message from a switch and all the preceding
+     * processors returned {@link Disposition#CONTINUE}.
+     * @param sw The switch that send the PACKET IN message to the controller.
+     * @param msg The PACKET IN message that the controller receives.
+     * @return {@link Disposition#STOP} if the message has been handled, otherwise {@link Disposition#CONTINUE}
+     */
+    public Disposition processPacketIn(Switch sw, OFPacketIn msg);
+}
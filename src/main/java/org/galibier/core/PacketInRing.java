@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import com.google.common.base.Preconditions;
+import org.galibier.util.WaitStrategy;
+import org.openflow.protocol.OFPacketIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated ring buffer passing PACKET_IN messages from the I/O threads to the event listeners.
+ * Every listener is a consumer with its own thread and sequence, and receives all PACKET_IN
+ * messages in the order they were published. A consumer processes all entries published since
+ * its previous turn as one batch before advancing its sequence, and passes the consecutive entries
+ * of a switch together to a {@link BatchSwitchEventListener}. Once the slowest consumer has passed
+ * a slot, the slot is cleared so that the ring does not keep the messages and their buffers alive.
+ * Publishers wait when the cleared slots are a whole ring behind.
+ */
+public class PacketInRing {
+    private static final Logger log = LoggerFactory.getLogger(PacketInRing.class);
+
+    private final int size;
+    private final int mask;
+    private final Switch[] switches;
+    private final OFPacketIn[] messages;
+    //  the sequence number last published into each slot
+    private final AtomicLongArray published;
+    //  the sequence number last claimed by a publisher
+    private final AtomicLong cursor = new AtomicLong(-1);
+    //  the sequence number up to which the slots are cleared, advanced only while sweeping
+    private final AtomicLong cleared = new AtomicLong(-1);
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final WaitStrategy waitStrategy;
+    private final CopyOnWriteArrayList<Consumer> consumers = new CopyOnWriteArrayList<Consumer>();
+    private volatile boolean running = true;
+
+    /**
+     * Creates a ring buffer.
+     * @param size the number of slots, which must be a power of two
+     * @param waitStrategy how consumers wait for entries
+     */
+    public PacketInRing(int size, WaitStrategy waitStrategy) {
+        Preconditions.checkArgument(size > 0 && Integer.bitCount(size) == 1, "Size (%s) must be a power of two", size);
+        Preconditions.checkNotNull(waitStrategy);
+
+        this.size = size;
+        this.mask = size - 1;
+        this.switches = new Switch[size];
+        this.messages = new OFPacketIn[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Publishes a PACKET_IN message to all consumers. It may be called by multiple threads.
+     * @param sw the switch that sent the PACKET_IN message
+     * @param in the PACKET_IN message
+     */
+    public void publish(Switch sw, OFPacketIn in) {
+        long sequence = cursor.incrementAndGet();
+        long wrapPoint = sequence - size;
+        while (wrapPoint > cleared.get() && running) {
+            sweep();
+            LockSupport.parkNanos(1);
+        }
+
+        int index = (int)(sequence & mask);
+        switches[index] = sw;
+        messages[index] = in;
+        published.lazySet(index, sequence);
+    }
+
+    /**
+     * Clears the slots which all consumers have passed. Only one thread sweeps at a time, and
+     * publishers do not reuse a slot until it is cleared.
+     */
+    private void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long from = cleared.get() + 1;
+            long to = minimumConsumerSequence(highestPublished(from));
+            for (long s = from; s <= to; s++) {
+                int index = (int)(s & mask);
+                switches[index] = null;
+                messages[index] = null;
+            }
+            if (to >= from) {
+                cleared.set(to);
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private long highestPublished(long next) {
+        long s = next;
+        while (published.get((int)(s & mask)) == s) {
+            s++;
+        }
+        return s - 1;
+    }
+
+    private long minimumConsumerSequence(long sequence) {
+        long minimum = sequence;
+        for (Consumer consumer: consumers) {
+            minimum = Math.min(minimum, consumer.sequence.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * Starts a consumer thread delivering the PACKET_IN messages published from now on to the listener.
+     * @param listener the listener
+     * @param subscription the PACKET_IN messages the listener is interested in
+     */
+    public void addConsumer(SwitchEventListener listener, Subscription subscription) {
+        Consumer consumer = new Consumer(listener, subscription, cursor.get());
+        consumers.add(consumer);
+        consumer.thread.start();
+    }
+
+    /**
+     * Stops the consumer thread of the listener.
+     * @param listener the listener
+     */
+    public void removeConsumer(SwitchEventListener listener) {
+        for (Consumer consumer: consumers) {
+            if (consumer.listener == listener) {
+                consumers.remove(consumer);
+                consumer.running = false;
+            }
+        }
+    }
+
+    /**
+     * Stops all consumer threads.
+     */
+    public void stop() {
+        running = false;
+        for (Consumer consumer: consumers) {
+            consumer.running = false;
+        }
+        consumers.clear();
+    }
+
+    private class Consumer implements Runnable {
+        private final SwitchEventListener listener;
+        private final Subscription subscription;
+        //  the sequence number last consumed
+        private final AtomicLong sequence;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private Consumer(SwitchEventListener listener, Subscription subscription, long start) {
+            this.listener = listener;
+            this.subscription = subscription;
+            this.sequence = new AtomicLong(start);
+            this.thread = new Thread(this, "packet-in-" + listener.getClass().getSimpleName());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            int attempts = 0;
+            while (running) {
+                long available = highestPublished(next);
+                if (available < next) {
+                    waitStrategy.idle(attempts);
+                    //  saturate so that a long idle period does not fall back to spinning
+                    if (attempts < Integer.MAX_VALUE) {
+                        attempts++;
+                    }
+                    continue;
+                }
+
+                attempts = 0;
+                try {
+                    if (listener instanceof BatchSwitchEventListener) {
+                        consumeBatch(next, available);
+                    } else {
+                        consume(next, available);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Exception occurred in an event listener", e);
+                }
+                sequence.lazySet(available);
+                next = available + 1;
+                sweep();
+            }
+        }
+
+        private void consume(long first, long last) {
+            for (long s = first; s <= last; s++) {
+                int index = (int)(s & mask);
+                if (!subscription.matchesPacketIn(switches[index], messages[index])) {
+                    continue;
+                }
+                try {
+                    listener.handlePacketIn(switches[index], messages[index]);
+                } catch (RuntimeException e) {
+                    log.warn("Exception occurred in an event listener", e);
+                }
+            }
+        }
+
+        private void consumeBatch(long first, long last) {
+            //  consecutive entries of the same switch are passed together
+            BatchSwitchEventListener batchListener = (BatchSwitchEventListener)listener;
+            Switch current = null;
+            List<OFPacketIn> batch = new ArrayList<OFPacketIn>();
+            for (long s = first; s <= last; s++) {
+                int index = (int)(s & mask);
+                if (!subscription.matchesPacketIn(switches[index], messages[index])) {
+                    continue;
+                }
+                if (switches[index] != current && !batch.isEmpty()) {
+                    deliver(batchListener, current, batch);
+                    batch = new ArrayList<OFPacketIn>();
+                }
+                current = switches[index];
+                batch.add(messages[index]);
+            }
+            if (!batch.isEmpty()) {
+                deliver(batchListener, current, batch);
+            }
+        }
+
+        private void deliver(BatchSwitchEventListener batchListener, Switch sw, List<OFPacketIn> batch) {
+            //  a failing batch does not lose the rest of the range
+            try {
+                batchListener.handlePacketIns(sw, Collections.unmodifiableList(batch));
+            } catch (RuntimeException e) {
+                log.warn("Exception occurred in an event listener", e);
+            }
+        }
+    }
+}
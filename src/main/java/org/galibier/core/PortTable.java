@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.openflow.protocol.OFPhysicalPort;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.openflow.protocol.OFPhysicalPort.OFPortConfig;
+import static org.openflow.protocol.OFPhysicalPort.OFPortState;
+
+/**
+ * Immutable table of the ports of a switch, sorted by the unsigned port numbers. A PORT_STATUS message
+ * produces a new table sharing nothing with the old one, so readers use a table without locking,
+ * and the list of the enabled ports is built once per change instead of once per read.
+ */
+final class PortTable {
+    static final PortTable EMPTY = new PortTable(new char[0], new OFPhysicalPort[0]);
+
+    //  port numbers are unsigned 16-bit, e.g. OFPP_LOCAL (0xfffe) follows the physical ports
+    private final char[] numbers;
+    private final OFPhysicalPort[] ports;
+    private final List<OFPhysicalPort> enabledPorts;
+
+    private PortTable(char[] numbers, OFPhysicalPort[] ports) {
+        this.numbers = numbers;
+        this.ports = ports;
+
+        OFPhysicalPort[] enabled = new OFPhysicalPort[ports.length];
+        int count = 0;
+        for (OFPhysicalPort port: ports) {
+            if (isEnabled(port)) {
+                enabled[count++] = port;
+            }
+        }
+        this.enabledPorts = Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(enabled, count)));
+    }
+
+    static PortTable of(List<OFPhysicalPort> ports) {
+        PortTable table = EMPTY;
+        for (OFPhysicalPort port: ports) {
+            table = table.with(port);
+        }
+        return table;
+    }
+
+    static boolean isEnabled(OFPhysicalPort port) {
+        if (port == null) {
+            return false;
+        }
+        if ((port.getConfig() & OFPortConfig.OFPPC_PORT_DOWN.getValue()) > 0) {
+            return false;
+        }
+        if ((port.getState() & OFPortState.OFPPS_LINK_DOWN.getValue()) > 0) {
+            return false;
+        }
+        if ((port.getState() & OFPortState.OFPPS_STP_MASK.getValue()) == OFPortState.OFPPS_STP_BLOCK.getValue()) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the table in which the port is added, or replaces the port with the same number.
+     */
+    PortTable with(OFPhysicalPort port) {
+        char number = (char)port.getPortNumber();
+        int index = Arrays.binarySearch(numbers, number);
+        if (index >= 0) {
+            OFPhysicalPort[] replaced = ports.clone();
+            replaced[index] = port;
+            return new PortTable(numbers, replaced);
+        }
+
+        int insertion = -index - 1;
+        char[] newNumbers = new char[numbers.length + 1];
+        OFPhysicalPort[] newPorts = new OFPhysicalPort[ports.length + 1];
+        System.arraycopy(numbers, 0, newNumbers, 0, insertion);
+        System.arraycopy(ports, 0, newPorts, 0, insertion);
+        newNumbers[insertion] = number;
+        newPorts[insertion] = port;
+        System.arraycopy(numbers, insertion, newNumbers, insertion + 1, numbers.length - insertion);
+        System.arraycopy(ports, insertion, newPorts, insertion + 1, ports.length - insertion);
+        return new PortTable(newNumbers, newPorts);
+    }
+
+    /**
+     * Returns the table in which the port is removed, or this table if it has no such port.
+     */
+    PortTable without(short portNumber) {
+        int index = Arrays.binarySearch(numbers, (char)portNumber);
+        if (index < 0) {
+            return this;
+        }
+
+        char[] newNumbers = new char[numbers.length - 1];
+        OFPhysicalPort[] newPorts = new OFPhysicalPort[ports.length - 1];
+        System.arraycopy(numbers, 0, newNumbers, 0, index);
+        System.arraycopy(ports, 0, newPorts, 0, index);
+        System.arraycopy(numbers, index + 1, newNumbers, index, numbers.length - index - 1);
+        System.arraycopy(ports, index + 1, newPorts, index, ports.length - index - 1);
+        return new PortTable(newNumbers, newPorts);
+    }
+
+    OFPhysicalPort get(short portNumber) {
+        int index = Arrays.binarySearch(numbers, (char)portNumber);
+        return index < 0 ? null : ports[index];
+    }
+
+    int size() {
+        return ports.length;
+    }
+
+    List<OFPhysicalPort> enabledPorts() {
+        return enabledPorts;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import com.google.common.base.Preconditions;
+import org.openflow.protocol.OFPacketIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Immutable chain of PACKET_IN processors sorted by their ordering constraints. Processors without
+ * constraints between them keep the order of their registration.
+ */
+final class ProcessorChain {
+    private static final Logger log = LoggerFactory.getLogger(ProcessorChain.class);
+    static final ProcessorChain EMPTY = new ProcessorChain(new PacketInProcessor[0]);
+
+    private final PacketInProcessor[] processors;
+
+    private ProcessorChain(PacketInProcessor[] processors) {
+        this.processors = processors;
+    }
+
+    /**
+     * Node of a processor in the chain.
+     */
+    static final class Node {
+        private final String name;
+        private final PacketInProcessor processor;
+        private final Set<String> after;
+        private final Set<String> before;
+
+        Node(String name, PacketInProcessor processor, Collection<String> after, Collection<String> before) {
+            this.name = name;
+            this.processor = processor;
+            this.after = new HashSet<String>(after);
+            this.before = new HashSet<String>(before);
+        }
+    }
+
+    /**
+     * Sorts the processors topologically. Constraints naming unregistered processors are ignored.
+     * @param nodes the processors in the order of registration
+     * @return the chain
+     * @throws IllegalArgumentException if the constraints are cyclic
+     */
+    static ProcessorChain sort(List<Node> nodes) {
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        for (int i = 0; i < nodes.size(); i++) {
+            indexes.put(nodes.get(i).name, i);
+        }
+
+        //  successors[i] contains the nodes that must run after node i
+        List<Set<Integer>> successors = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < nodes.size(); i++) {
+            successors.add(new HashSet<Integer>());
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            for (String name: node.after) {
+                Integer predecessor = indexes.get(name);
+                if (predecessor != null) {
+                    successors.get(predecessor).add(i);
+                }
+            }
+            for (String name: node.before) {
+                Integer successor = indexes.get(name);
+                if (successor != null) {
+                    successors.get(i).add(successor);
+                }
+            }
+        }
+
+        int[] inDegrees = new int[nodes.size()];
+        for (Set<Integer> edges: successors) {
+            for (int successor: edges) {
+                inDegrees[successor]++;
+            }
+        }
+
+        //  Kahn's algorithm picking the earliest registered node among the ready ones
+        PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (inDegrees[i] == 0) {
+                ready.add(i);
+            }
+        }
+        List<PacketInProcessor> sorted = new ArrayList<PacketInProcessor>(nodes.size());
+        while (!ready.isEmpty()) {
+            int current = ready.poll();
+            sorted.add(nodes.get(current).processor);
+            for (int successor: successors.get(current)) {
+                if (--inDegrees[successor] == 0) {
+                    ready.add(successor);
+                }
+            }
+        }
+        Preconditions.checkArgument(sorted.size() == nodes.size(), "Ordering constraints of processors are cyclic");
+
+        return new ProcessorChain(sorted.toArray(new PacketInProcessor[sorted.size()]));
+    }
+
+    boolean isEmpty() {
+        return processors.length == 0;
+    }
+
+    Disposition process(Switch sw, OFPacketIn in) {
+        for (PacketInProcessor processor: processors) {
+            Disposition disposition;
+            try {
+                disposition = processor.processPacketIn(sw, in);
+            } catch (RuntimeException e) {
+                //  processors may run on the I/O thread, where an exception closes the connection
+                log.warn("Exception occurred in a PACKET_IN processor", e);
+                disposition = Disposition.CONTINUE;
+            }
+            if (disposition == Disposition.STOP) {
+                return Disposition.STOP;
+            }
+        }
+        return Disposition.CONTINUE;
+    }
+
+    /**
+     * Processes the messages and returns the ones to be passed to the event listeners.
+     */
+    List<OFPacketIn> process(Switch sw, List<OFPacketIn> ins) {
+        //  the list is copied only when some message is stopped
+        List<OFPacketIn> continued = null;
+        for (int i = 0; i < ins.size(); i++) {
+            OFPacketIn in = ins.get(i);
+            if (process(sw, in) == Disposition.CONTINUE) {
+                if (continued != null) {
+                    continued.add(in);
+                }
+            } else if (continued == null) {
+                continued = new ArrayList<OFPacketIn>(ins.subList(0, i));
+            }
+        }
+        return continued == null ? ins : Collections.unmodifiableList(continued);
+    }
+}
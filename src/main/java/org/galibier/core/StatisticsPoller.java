@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.galibier.util.RttEstimator;
+import org.galibier.util.ShardedExecutor;
+import org.galibier.util.WheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.protocol.statistics.OFPortStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends STATS_REQUESTs to the handshaken switches periodically. The first poll of each switch is placed
+ * in the interval by a low-discrepancy sequence, so the requests of thousands of switches are spread
+ * evenly over the interval instead of being sent in bursts. The number of outstanding requests is
+ * capped per switch and over all switches; a poll exceeding a cap is skipped, not queued. The interval
+ * of a switch grows with the latency of its replies, so slow switches are polled less often. The replies
+ * are passed to the listeners on the threads of the poller, and a request counts against the caps until
+ * the listeners have handled its reply, so slow listeners slow down the polls. A reply finding the queue
+ * of its thread full is dropped rather than blocking the thread reading from the switch.
+ */
+public class StatisticsPoller {
+    private static final Logger log = LoggerFactory.getLogger(StatisticsPoller.class);
+    private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+    //  a switch spends at most 1 / LATENCY_RATIO of the interval on answering polls
+    private static final int LATENCY_RATIO = 10;
+
+    private final WheelTimer timer;
+    private final ShardedExecutor executor;
+    private final List<StatisticsPollListener> listeners;
+    private final OFStatisticsType[] types;
+    private final long intervalNanos;
+    private final long maxIntervalNanos;
+    private final int maxInFlightPerSwitch;
+    private final Semaphore inFlight;
+
+    private final ConcurrentMap<Long, PolledSwitch> switches = new ConcurrentHashMap<Long, PolledSwitch>();
+    private final AtomicLong addedSwitches = new AtomicLong();
+    private final AtomicLong sentRequests = new AtomicLong();
+    private final AtomicLong skippedRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong droppedReplies = new AtomicLong();
+
+    /**
+     * Creates the poller.
+     * @param timer the timer scheduling the polls
+     * @param threads the number of threads invoking the listeners
+     * @param queueCapacity the number of replies waiting for each thread before further replies are dropped
+     * @param listeners the listeners receiving the replies, which may be modified later
+     * @param types the kinds of statistics requested by each poll, out of DESC, FLOW, TABLE and PORT
+     * @param intervalMillis the interval between polls of a switch answering quickly
+     * @param maxIntervalMillis the upper bound of the interval of a slow switch
+     * @param maxInFlightPerSwitch the maximum number of outstanding requests to a switch. When it is smaller
+     *                             than the number of types, each poll requests the types following the ones
+     *                             requested by the previous poll
+     * @param maxInFlight the maximum number of outstanding requests to all switches
+     */
+    public StatisticsPoller(WheelTimer timer, int threads, int queueCapacity, List<StatisticsPollListener> listeners,
+                            EnumSet<OFStatisticsType> types, long intervalMillis, long maxIntervalMillis,
+                            int maxInFlightPerSwitch, int maxInFlight) {
+        Preconditions.checkNotNull(timer);
+        Preconditions.checkNotNull(listeners);
+        Preconditions.checkArgument(!types.isEmpty(), "No statistics type is given");
+        for (OFStatisticsType type: types) {
+            Preconditions.checkArgument(bodyOf(type) != null || hasEmptyBody(type),
+                    "Statistics type (%s) is not supported", type);
+        }
+        Preconditions.checkArgument(intervalMillis > 0, "Interval (%s) must be positive", intervalMillis);
+        Preconditions.checkArgument(intervalMillis <= maxIntervalMillis,
+                "Interval (%s) must not exceed maximum interval (%s)", intervalMillis, maxIntervalMillis);
+        Preconditions.checkArgument(maxInFlightPerSwitch > 0,
+                "Maximum requests per switch (%s) must be positive", maxInFlightPerSwitch);
+        Preconditions.checkArgument(maxInFlight > 0, "Maximum requests (%s) must be positive", maxInFlight);
+
+        this.timer = timer;
+        this.executor = new ShardedExecutor(threads, queueCapacity, "statistics-poller-%d");
+        this.listeners = listeners;
+        this.types = types.toArray(new OFStatisticsType[types.size()]);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(maxIntervalMillis);
+        this.maxInFlightPerSwitch = maxInFlightPerSwitch;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Starts polling the switch.
+     * @param sw the handshaken switch
+     */
+    public void add(Switch sw) {
+        PolledSwitch polled = new PolledSwitch(sw);
+        PolledSwitch previous = switches.put(sw.dataPathId(), polled);
+        if (previous != null) {
+            previous.cancel();
+        }
+        //  the fractional parts of n * golden ratio fill the interval evenly for any n
+        double offset = (addedSwitches.getAndIncrement() * GOLDEN_RATIO_FRACTION) % 1.0;
+        polled.scheduleAfter((long)(offset * intervalNanos));
+    }
+
+    /**
+     * Stops polling the switch. The outstanding requests are left to complete or fail.
+     * @param sw the switch
+     */
+    public void remove(Switch sw) {
+        long dataPathId = sw.dataPathId();
+        PolledSwitch polled = switches.get(dataPathId);
+        //  the switch may have reconnected already
+        if (polled != null && polled.sw == sw && switches.remove(dataPathId, polled)) {
+            polled.cancel();
+        }
+    }
+
+    /**
+     * Returns the current interval between polls of the switch.
+     * @param dataPathId the datapath ID of the switch
+     * @return the interval in nanoseconds, or -1 if the switch is not polled
+     */
+    public long intervalNanos(long dataPathId) {
+        PolledSwitch polled = switches.get(dataPathId);
+        return polled == null ? -1 : polled.intervalNanos;
+    }
+
+    /**
+     * Returns the number of STATS_REQUESTs sent so far.
+     * @return the number of sent requests
+     */
+    public long sentRequests() {
+        return sentRequests.get();
+    }
+
+    /**
+     * Returns the number of STATS_REQUESTs not sent because a cap of outstanding requests was reached.
+     * @return the number of skipped requests
+     */
+    public long skippedRequests() {
+        return skippedRequests.get();
+    }
+
+    /**
+     * Returns the number of STATS_REQUESTs which failed or timed out.
+     * @return the number of failed requests
+     */
+    public long failedRequests() {
+        return failedRequests.get();
+    }
+
+    /**
+     * Returns the number of replies not passed to the listeners because the listeners did not keep up
+     * or the poller was stopped.
+     * @return the number of dropped replies
+     */
+    public long droppedReplies() {
+        return droppedReplies.get();
+    }
+
+    /**
+     * Stops polling all switches and the threads invoking the listeners.
+     * @param timeout the maximum time to wait for the listeners
+     * @param unit the unit of the timeout
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        for (PolledSwitch polled: switches.values()) {
+            polled.cancel();
+        }
+        switches.clear();
+        executor.shutdown(timeout, unit);
+    }
+
+    private static OFStatistics bodyOf(OFStatisticsType type) {
+        switch (type) {
+            case FLOW:
+                OFFlowStatisticsRequest flow = new OFFlowStatisticsRequest();
+                flow.setMatch(new OFMatch().setWildcards(OFMatch.OFPFW_ALL));
+                flow.setTableId((byte)0xff);
+                flow.setOutPort(OFPort.OFPP_NONE.getValue());
+                return flow;
+            case PORT:
+                OFPortStatisticsRequest port = new OFPortStatisticsRequest();
+                port.setPortNumber(OFPort.OFPP_NONE.getValue());
+                return port;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean hasEmptyBody(OFStatisticsType type) {
+        return type == OFStatisticsType.DESC || type == OFStatisticsType.TABLE;
+    }
+
+    private static OFStatisticsRequest newRequest(OFStatisticsType type) {
+        OFStatisticsRequest request = new OFStatisticsRequest();
+        request.setStatisticType(type);
+        OFStatistics body = bodyOf(type);
+        if (body == null) {
+            request.setLengthU(OFStatisticsFuture.HEADER_LENGTH);
+        } else {
+            request.setStatistics(Collections.singletonList(body));
+            request.setLengthU(OFStatisticsFuture.HEADER_LENGTH + body.getLength());
+        }
+        return request;
+    }
+
+    private class PolledSwitch implements Runnable {
+        private final Switch sw;
+        private final RttEstimator latency;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        //  the index of the type requested first by the next poll, accessed only by the timer thread
+        private int nextType;
+        private volatile long intervalNanos;
+        private volatile Timeout timeout;
+        private volatile boolean cancelled;
+
+        private PolledSwitch(Switch sw) {
+            this.sw = sw;
+            this.latency = new RttEstimator(StatisticsPoller.this.intervalNanos, maxIntervalNanos);
+            this.intervalNanos = StatisticsPoller.this.intervalNanos;
+        }
+
+        private void scheduleAfter(long delayNanos) {
+            timeout = timer.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void cancel() {
+            cancelled = true;
+            Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            int busy = outstanding.get();
+            if (busy > 0) {
+                //  the switch has not answered the previous poll yet
+                intervalNanos = Math.min(maxIntervalNanos, intervalNanos * 2);
+            }
+            //  the cap limits the whole poll, and the types left out are requested first next time
+            int budget = Math.min(types.length, maxInFlightPerSwitch - busy);
+            int sent = 0;
+            while (sent < budget && inFlight.tryAcquire()) {
+                poll(types[(nextType + sent) % types.length]);
+                sent++;
+            }
+            nextType = (nextType + sent) % types.length;
+            skippedRequests.addAndGet(types.length - sent);
+
+            if (!cancelled) {
+                scheduleAfter(intervalNanos);
+            }
+        }
+
+        private void poll(OFStatisticsType type) {
+            outstanding.incrementAndGet();
+            sentRequests.incrementAndGet();
+
+            final long sentNanos = System.nanoTime();
+            final OFStatisticsFuture future = sw.sendStatistics(newRequest(type));
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.getCause() != null || future.isCancelled()) {
+                        failedRequests.incrementAndGet();
+                        release();
+                        return;
+                    }
+                    adapt(System.nanoTime() - sentNanos);
+                    deliver((OFStatisticsReply)future.getReply());
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        private void adapt(long latencyNanos) {
+            latency.update(latencyNanos);
+            long interval = latency.smoothedRttNanos() * LATENCY_RATIO;
+            intervalNanos = Math.min(maxIntervalNanos, Math.max(StatisticsPoller.this.intervalNanos, interval));
+        }
+
+        private void release() {
+            outstanding.decrementAndGet();
+            inFlight.release();
+        }
+
+        /**
+         * Passes the reply to the listeners. It is called on the thread completing the future,
+         * typically the I/O thread, so it never blocks.
+         */
+        private void deliver(final OFStatisticsReply reply) {
+            boolean accepted = executor.tryExecute(sw.dataPathId(), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (StatisticsPollListener listener: listeners) {
+                            try {
+                                listener.handleStatistics(sw, reply);
+                            } catch (RuntimeException e) {
+                                //  keep the thread for the other switches
+                                log.warn("Exception occurred in a statistics listener", e);
+                            }
+                        }
+                    } finally {
+                        //  the caps bound the replies waiting for the listeners too
+                        release();
+                    }
+                }
+            });
+            if (!accepted) {
+                droppedReplies.incrementAndGet();
+                release();
+            }
+        }
+    }
+}
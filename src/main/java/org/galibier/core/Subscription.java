@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.galibier.netty.LazyPacketIn;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The events that an event listener is interested in. A subscription is immutable, and each
+ * method narrowing it returns a new subscription. Conditions not specified match everything.
+ *
+ * <pre>
+ *     controller.addEventListener(listener, Subscription.all().types(OFType.PACKET_IN).etherTypes(EthernetType.IPv4));
+ * </pre>
+ */
+public final class Subscription {
+    private static final EnumSet<OFType> EVENT_TYPES =
+            EnumSet.of(OFType.PACKET_IN, OFType.FLOW_REMOVED, OFType.PORT_STATUS);
+    private static final Subscription ALL = new Subscription(EVENT_TYPES, null, null, null);
+
+    private final EnumSet<OFType> types;
+    //  sorted, or null for any
+    private final int[] etherTypes;
+    private final short[] inPorts;
+    private final long[] dataPathIds;
+
+    private Subscription(EnumSet<OFType> types, int[] etherTypes, short[] inPorts, long[] dataPathIds) {
+        this.types = types;
+        this.etherTypes = etherTypes;
+        this.inPorts = inPorts;
+        this.dataPathIds = dataPathIds;
+    }
+
+    /**
+     * Returns the subscription to all events.
+     * @return the subscription to all events
+     */
+    public static Subscription all() {
+        return ALL;
+    }
+
+    /**
+     * Restricts the messages to the specified types. Switch connection and disconnection are
+     * always delivered.
+     * @param types PACKET_IN, FLOW_REMOVED or PORT_STATUS
+     * @return the new subscription
+     */
+    public Subscription types(OFType... types) {
+        Preconditions.checkArgument(types.length > 0, "No message type is specified");
+        EnumSet<OFType> set = EnumSet.noneOf(OFType.class);
+        for (OFType type: types) {
+            Preconditions.checkArgument(EVENT_TYPES.contains(type), "%s is not an event message", type);
+            set.add(type);
+        }
+        return new Subscription(set, etherTypes, inPorts, dataPathIds);
+    }
+
+    /**
+     * Restricts PACKET_IN messages to the packets with the specified EtherTypes.
+     * @param etherTypes EtherTypes such as {@link org.galibier.packet.EthernetType#IPv4}
+     * @return the new subscription
+     */
+    public Subscription etherTypes(int... etherTypes) {
+        Preconditions.checkArgument(etherTypes.length > 0, "No EtherType is specified");
+        int[] sorted = etherTypes.clone();
+        Arrays.sort(sorted);
+        return new Subscription(types, sorted, inPorts, dataPathIds);
+    }
+
+    /**
+     * Restricts PACKET_IN messages to the packets received on the specified ports.
+     * @param inPorts port numbers
+     * @return the new subscription
+     */
+    public Subscription inPorts(short... inPorts) {
+        Preconditions.checkArgument(inPorts.length > 0, "No port is specified");
+        short[] sorted = inPorts.clone();
+        Arrays.sort(sorted);
+        return new Subscription(types, etherTypes, sorted, dataPathIds);
+    }
+
+    /**
+     * Restricts all events to the specified switches.
+     * @param dataPathIds datapath IDs of the switches
+     * @return the new subscription
+     */
+    public Subscription dataPathIds(long... dataPathIds) {
+        Preconditions.checkArgument(dataPathIds.length > 0, "No datapath ID is specified");
+        long[] sorted = dataPathIds.clone();
+        Arrays.sort(sorted);
+        return new Subscription(types, etherTypes, inPorts, sorted);
+    }
+
+    /**
+     * Returns the message types of this subscription.
+     * @return the message types
+     */
+    public Set<OFType> types() {
+        return EnumSet.copyOf(types);
+    }
+
+    boolean matchesType(OFType type) {
+        return types.contains(type);
+    }
+
+    boolean matchesSwitch(Switch sw) {
+        if (dataPathIds == null) {
+            return true;
+        }
+        //  a switch in the handshake has no datapath ID to match yet
+        return sw.isHandshaken() && Arrays.binarySearch(dataPathIds, sw.dataPathId()) >= 0;
+    }
+
+    boolean hasEtherTypes() {
+        return etherTypes != null;
+    }
+
+    int[] etherTypeArray() {
+        return etherTypes;
+    }
+
+    boolean matchesEtherType(int etherType) {
+        return etherTypes == null || Arrays.binarySearch(etherTypes, etherType) >= 0;
+    }
+
+    //  the EtherType is checked by the caller, which knows whether it is needed
+    boolean matchesPacketInExceptEtherType(Switch sw, OFPacketIn in) {
+        return types.contains(OFType.PACKET_IN)
+                && matchesSwitch(sw)
+                && (inPorts == null || Arrays.binarySearch(inPorts, in.getInPort()) >= 0);
+    }
+
+    boolean matchesPacketIn(Switch sw, OFPacketIn in) {
+        return matchesPacketInExceptEtherType(sw, in)
+                && (etherTypes == null || matchesEtherType(LazyPacketIn.etherTypeOf(in)));
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("types", types)
+                .add("etherTypes", Arrays.toString(etherTypes))
+                .add("inPorts", Arrays.toString(inPorts))
+                .add("dataPathIds", Arrays.toString(dataPathIds))
+                .toString();
+    }
+}
@@ -27,31 +27,29 @@ package org.galibier.core;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import org.galibier.netty.EncodedMessage;
 import org.galibier.util.EnumUtil;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPhysicalPort;
+import org.openflow.protocol.OFPortStatus;
+import org.openflow.protocol.OFStatisticsRequest;
 import org.openflow.protocol.action.OFActionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import static org.openflow.protocol.OFFeaturesReply.OFCapabilities;
-import static org.openflow.protocol.OFPhysicalPort.OFPortConfig;
-import static org.openflow.protocol.OFPhysicalPort.OFPortState;
+import static org.openflow.protocol.OFPortStatus.OFPortReason;
 
 public class Switch {
     private final static Logger log = LoggerFactory.getLogger(Switch.class);
 
     private volatile OFFeaturesReply features;
-    private final ConcurrentMap<Short, OFPhysicalPort> ports =
-            new ConcurrentHashMap<Short, OFPhysicalPort>();
+    private volatile PortTable ports = PortTable.EMPTY;
     private final Date connectedSince;
     private final MessageDispatcher dispatcher;
 
@@ -68,9 +66,23 @@ public class Switch {
 
     public synchronized void setFeatures(OFFeaturesReply features) {
         this.features = features;
+        this.ports = PortTable.of(features.getPorts());
+    }
 
-        for (OFPhysicalPort port: features.getPorts()) {
-            ports.put(port.getPortNumber(), port);
+    /**
+     * For internal use. Applies the addition, deletion or modification of a port to the port table.
+     * It is called before the PORT_STATUS message is passed to the listeners.
+     * @param status The PORT_STATUS message
+     */
+    public synchronized void applyPortStatus(OFPortStatus status) {
+        OFPhysicalPort port = status.getDesc();
+        byte reason = status.getReason();
+        if (reason == OFPortReason.OFPPR_DELETE.ordinal()) {
+            ports = ports.without(port.getPortNumber());
+        } else if (reason == OFPortReason.OFPPR_ADD.ordinal() || reason == OFPortReason.OFPPR_MODIFY.ordinal()) {
+            ports = ports.with(port);
+        } else {
+            log.warn("Unknown reason of PORT_STATUS: {}", reason);
         }
     }
 
@@ -107,41 +119,34 @@ public class Switch {
     }
 
     public int portCount() {
-        return ports.keySet().size();
+        return ports.size();
     }
 
     public int enabledPortCount() {
-        return getEnabledPorts().size();
+        return ports.enabledPorts().size();
     }
 
+    /**
+     * Returns the ports which are up, have a link and are not blocked by STP, in the order of
+     * the port numbers. The list is an immutable snapshot shared by the callers until the ports
+     * change, so it can be read for every PACKET_IN without allocation.
+     * @return The unmodifiable list of the enabled ports
+     */
     public List<OFPhysicalPort> getEnabledPorts() {
-        List<OFPhysicalPort> result = new ArrayList<OFPhysicalPort>();
-        for (OFPhysicalPort port: ports.values()) {
-            if (portEnabled(port)) {
-                result.add(port);
-            }
-        }
-        return result;
+        return ports.enabledPorts();
     }
 
-    private boolean portEnabled(short portNumber) {
-        return portEnabled(ports.get(portNumber));
+    /**
+     * Returns the port with the number.
+     * @param portNumber The port number
+     * @return The port, or null if the switch has no such port
+     */
+    public OFPhysicalPort getPort(short portNumber) {
+        return ports.get(portNumber);
     }
 
-    private boolean portEnabled(OFPhysicalPort port) {
-        if (port == null) {
-            return false;
-        }
-        if ((port.getConfig() & OFPortConfig.OFPPC_PORT_DOWN.getValue()) > 0) {
-            return false;
-        }
-        if ((port.getState() & OFPortState.OFPPS_LINK_DOWN.getValue()) > 0) {
-            return false;
-        }
-        if ((port.getState() & OFPortState.OFPPS_STP_MASK.getValue()) == OFPortState.OFPPS_STP_BLOCK.getValue()) {
-            return false;
-        }
-        return true;
+    public boolean isPortEnabled(short portNumber) {
+        return PortTable.isEnabled(ports.get(portNumber));
     }
 
     public boolean isHandshaken() {
@@ -157,6 +162,107 @@ public class Switch {
         return dispatcher.send(out);
     }
 
+    /**
+     * Sends the message encoded in advance. The switch gets its own XID, and the encoded message
+     * is not modified, so it can be sent to other switches at the same time.
+     * @param out The encoded message
+     * @return The future of the message
+     */
+    public OFMessageFuture send(EncodedMessage out) {
+        Preconditions.checkNotNull(out);
+
+        if (features == null) {
+            log.warn("FEATURE_REPLY is not received, but a message will be sent");
+        }
+        return dispatcher.send(out);
+    }
+
+    /**
+     * Sends the STATS_REQUEST. The returned future completes with a single STATS_REPLY carrying the
+     * statistics of all parts of the reply.
+     * @param request The STATS_REQUEST
+     * @return The future of the aggregated reply
+     */
+    public OFStatisticsFuture sendStatistics(OFStatisticsRequest request) {
+        Preconditions.checkNotNull(request);
+
+        return dispatcher.sendStatistics(request, null);
+    }
+
+    /**
+     * Sends the STATS_REQUEST, and passes each part of the reply to the callback as it arrives. The returned
+     * future completes with the last part, after the callback has received it.
+     * @param request The STATS_REQUEST
+     * @param callback The callback receiving the parts of the reply
+     * @return The future of the last part of the reply
+     */
+    public OFStatisticsFuture sendStatistics(OFStatisticsRequest request, StatisticsCallback callback) {
+        Preconditions.checkNotNull(request);
+        Preconditions.checkNotNull(callback);
+
+        return dispatcher.sendStatistics(request, callback);
+    }
+
+    /**
+     * Sends the messages followed by a BARRIER_REQUEST. The messages get consecutive XIDs, and the returned
+     * future completes with the BARRIER_REPLY once the switch has processed all of them. It fails with
+     * {@link OFErrorException} if the switch answers any of the messages with an ERROR.
+     * @param msgs The messages to be sent in order
+     * @return The future of the whole batch
+     */
+    public OFMessageFuture sendBatch(List<OFMessage> msgs) {
+        Preconditions.checkNotNull(msgs);
+
+        if (features == null) {
+            log.warn("FEATURE_REPLY is not received, but messages will be sent");
+        }
+        return dispatcher.sendBatch(msgs);
+    }
+
+    /**
+     * Returns true if messages sent to the switch are written immediately. When it is false,
+     * messages are queued and may be dropped if the queue is full, so applications sending
+     * many messages, e.g. PACKET_OUT, should slow down.
+     * @return true if the switch keeps up with the messages sent by the controller
+     */
+    public boolean isWritable() {
+        return dispatcher.isWritable();
+    }
+
+    /**
+     * Returns the number of messages waiting to be written to the switch.
+     * @return the number of queued messages
+     */
+    public int queuedMessages() {
+        return dispatcher.queuedMessages();
+    }
+
+    /**
+     * Returns the number of messages dropped because the switch did not keep up.
+     * @return the number of dropped messages
+     */
+    public long droppedMessages() {
+        return dispatcher.droppedMessages();
+    }
+
+    /**
+     * Returns the number of requests that the switch did not answer before their deadline.
+     * @return the number of expired requests
+     */
+    public long expiredRequests() {
+        return dispatcher.expiredRequests();
+    }
+
+    /**
+     * Returns how long the handshake took from the connection until both FEATURES_REPLY and GET_CONFIG_REPLY
+     * were received. The switch is handed to the listeners on FEATURES_REPLY, so it may be used before
+     * this time is known.
+     * @return the handshake time in nanoseconds, or -1 if the handshake is not completed
+     */
+    public long handshakeNanos() {
+        return dispatcher.handshakeNanos();
+    }
+
     public void stop() {
         dispatcher.stop();
     }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.galibier.core.Constants.*;
+
+/**
+ * Pool of reusable ByteBuffers for outbound messages. Buffers are grouped into power-of-two
+ * size classes from 64 bytes up to the maximum OpenFlow message length. Each class keeps at
+ * most a fixed number of bytes of free buffers; buffers released beyond that are left to the GC.
+ */
+public class BufferArena {
+    private static final int MINIMUM_CLASS_SHIFT = 6;   //  64 bytes
+    private static final int DEFAULT_BYTES_PER_CLASS = 1 << 20;
+
+    private final boolean direct;
+    private final Queue<ByteBuffer>[] freeBuffers;
+    private final AtomicInteger[] freeCounts;
+    private final int[] maxFreeCounts;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+    private final AtomicLong discards = new AtomicLong();
+
+    public BufferArena(boolean direct) {
+        this(direct, DEFAULT_BYTES_PER_CLASS);
+    }
+
+    /**
+     * Creates an arena.
+     * @param direct true if direct buffers are pooled, false if heap buffers are pooled
+     * @param bytesPerClass the maximum bytes of free buffers kept in each size class
+     */
+    @SuppressWarnings("unchecked")
+    public BufferArena(boolean direct, int bytesPerClass) {
+        Preconditions.checkArgument(bytesPerClass >= 0);
+
+        this.direct = direct;
+        int classes = sizeClass(MAXIMUM_PACKET_LENGTH) + 1;
+        this.freeBuffers = new Queue[classes];
+        this.freeCounts = new AtomicInteger[classes];
+        this.maxFreeCounts = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            freeBuffers[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            freeCounts[i] = new AtomicInteger();
+            maxFreeCounts[i] = bytesPerClass / classCapacity(i);
+        }
+    }
+
+    /**
+     * Returns a buffer whose position is 0 and whose limit is the requested length.
+     * The buffer must be returned with {@link #release(ByteBuffer)} when it is no longer used.
+     * @param length the length in bytes needed
+     * @return the buffer
+     */
+    public ByteBuffer acquire(int length) {
+        Preconditions.checkArgument(length >= 0 && length <= MAXIMUM_PACKET_LENGTH,
+                "Length (%s) is out of range", length);
+        acquisitions.incrementAndGet();
+
+        int sizeClass = sizeClass(length);
+        ByteBuffer buffer = freeBuffers[sizeClass].poll();
+        if (buffer != null) {
+            freeCounts[sizeClass].decrementAndGet();
+        } else {
+            int capacity = classCapacity(sizeClass);
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            allocations.incrementAndGet();
+            allocatedBytes.addAndGet(capacity);
+        }
+
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer acquired from this arena to the pool.
+     * @param buffer the buffer to be reused
+     */
+    public void release(ByteBuffer buffer) {
+        releases.incrementAndGet();
+
+        int sizeClass = sizeClass(buffer.capacity());
+        if (buffer.isDirect() != direct || classCapacity(sizeClass) != buffer.capacity()) {
+            //  not allocated by this arena
+            discards.incrementAndGet();
+            return;
+        }
+
+        if (freeCounts[sizeClass].incrementAndGet() <= maxFreeCounts[sizeClass]) {
+            freeBuffers[sizeClass].offer(buffer);
+        } else {
+            freeCounts[sizeClass].decrementAndGet();
+            discards.incrementAndGet();
+        }
+    }
+
+    private static int sizeClass(int length) {
+        if (length <= (1 << MINIMUM_CLASS_SHIFT)) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MINIMUM_CLASS_SHIFT;
+    }
+
+    private static int classCapacity(int sizeClass) {
+        return 1 << (sizeClass + MINIMUM_CLASS_SHIFT);
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns the number of buffers handed out by this arena.
+     */
+    public long acquisitionCount() {
+        return acquisitions.get();
+    }
+
+    /**
+     * Returns the number of buffers newly allocated because no pooled buffer was available.
+     */
+    public long allocationCount() {
+        return allocations.get();
+    }
+
+    /**
+     * Returns the total bytes of buffers newly allocated.
+     */
+    public long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * Returns the number of buffers returned to this arena.
+     */
+    public long releaseCount() {
+        return releases.get();
+    }
+
+    /**
+     * Returns the number of released buffers dropped because the size class was full.
+     */
+    public long discardCount() {
+        return discards.get();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import com.google.common.base.Preconditions;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+import java.nio.ByteBuffer;
+
+import static org.galibier.core.Constants.XID_FIELD_OFFSET;
+
+/**
+ * Message serialized once to be sent to many switches. The body is kept in a read-only buffer
+ * shared by all writes, and each write gets its own copy of the header with its XID, so that
+ * neither the message nor the buffer is modified while they are written to the switches.
+ */
+public final class EncodedMessage {
+    private final OFType type;
+    private final byte[] header;
+    private final ChannelBuffer body;
+
+    private EncodedMessage(OFType type, byte[] header, ChannelBuffer body) {
+        this.type = type;
+        this.header = header;
+        this.body = body;
+    }
+
+    /**
+     * Serializes the message. The XID of the message is ignored.
+     * @param message the message whose length is set
+     * @return the encoded message
+     */
+    public static EncodedMessage of(OFMessage message) {
+        Preconditions.checkNotNull(message);
+        int length = message.getLengthU();
+        Preconditions.checkArgument(length >= OFMessage.MINIMUM_LENGTH, "Length (%s) is too short", length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        message.writeTo(buffer);
+        byte[] image = buffer.array();
+        byte[] header = new byte[OFMessage.MINIMUM_LENGTH];
+        System.arraycopy(image, 0, header, 0, header.length);
+        ChannelBuffer body = ChannelBuffers.unmodifiableBuffer(
+                ChannelBuffers.wrappedBuffer(image, header.length, length - header.length));
+        return new EncodedMessage(message.getType(), header, body);
+    }
+
+    public OFType type() {
+        return type;
+    }
+
+    public int length() {
+        return header.length + body.readableBytes();
+    }
+
+    /**
+     * Returns the message with the XID, sharing the body with the other writes.
+     * @param xid the transaction ID of the message
+     * @return the encoded message
+     */
+    public ChannelBuffer encode(int xid) {
+        ChannelBuffer patched = ChannelBuffers.buffer(header.length);
+        patched.writeBytes(header);
+        patched.setInt(XID_FIELD_OFFSET, xid);
+        if (!body.readable()) {
+            return patched;
+        }
+        return ChannelBuffers.wrappedBuffer(patched, body.duplicate());
+    }
+}
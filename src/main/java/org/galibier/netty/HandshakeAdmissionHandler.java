@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.jboss.netty.channel.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the events of a new connection until HandshakeLimiter lets its handshake start. The
+ * connected event and any message read before the channel stopped reading are passed upstream
+ * in order once the connection is admitted. The other events of a connection closed while waiting
+ * are dropped, so the following handlers never see a connection that was not admitted.
+ */
+public class HandshakeAdmissionHandler extends SimpleChannelUpstreamHandler {
+    private final HandshakeLimiter limiter;
+    //  guarded by this
+    private boolean waiting;
+    private final List<ChannelEvent> heldEvents = new ArrayList<ChannelEvent>();
+
+    public HandshakeAdmissionHandler(HandshakeLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void handleUpstream(final ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+        if (e instanceof ChannelStateEvent) {
+            ChannelStateEvent event = (ChannelStateEvent)e;
+            if (event.getState() == ChannelState.CONNECTED && event.getValue() != null) {
+                synchronized (this) {
+                    waiting = true;
+                    heldEvents.add(e);
+                }
+                limiter.admit(ctx.getChannel(), new Runnable() {
+                    @Override
+                    public void run() {
+                        admit(ctx);
+                    }
+                });
+                return;
+            }
+            if (event.getState() == ChannelState.OPEN && Boolean.FALSE.equals(event.getValue())) {
+                limiter.cancelled(ctx.getChannel());
+            }
+        }
+
+        synchronized (this) {
+            if (waiting) {
+                if (e instanceof MessageEvent) {
+                    heldEvents.add(e);
+                }
+                return;
+            }
+        }
+        ctx.sendUpstream(e);
+    }
+
+    private synchronized void admit(ChannelHandlerContext ctx) {
+        //  sent with the lock held so that no message overtakes the held events
+        for (ChannelEvent event: heldEvents) {
+            ctx.sendUpstream(event);
+        }
+        heldEvents.clear();
+        waiting = false;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.galibier.util.RateMeter;
+import org.jboss.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bounds the number of handshakes in progress. A connection over the limit stops reading and waits
+ * in a FIFO queue until a handshake in progress completes, fails or its connection is closed.
+ * A waiting connection is started on a thread of the limiter, not on the thread which finished the
+ * previous handshake, e.g. the I/O thread of another switch or the timer thread.
+ * It also measures the rates of accepted connections and completed handshakes.
+ */
+public class HandshakeLimiter {
+    private static final Logger log = LoggerFactory.getLogger(HandshakeLimiter.class);
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    private final int maxHandshakes;
+    private final Executor starter;
+    //  the executor created by the limiter, or null if the starter is given
+    private final ExecutorService ownedStarter;
+    //  guarded by this
+    private final Set<Channel> handshaking = new HashSet<Channel>();
+    private final Queue<Waiter> waiters = new LinkedList<Waiter>();
+
+    private final RateMeter accepts = new RateMeter(RATE_WINDOW_SECONDS);
+    private final RateMeter handshakes = new RateMeter(RATE_WINDOW_SECONDS);
+
+    private static class Waiter {
+        private final Channel channel;
+        private final Runnable start;
+
+        private Waiter(Channel channel, Runnable start) {
+            this.channel = channel;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Creates the limiter starting the waiting connections on a dedicated thread, which is
+     * created when a connection waits for the first time.
+     * @param maxHandshakes the number of handshakes in progress at once
+     */
+    public HandshakeLimiter(int maxHandshakes) {
+        this(maxHandshakes, Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("handshake-admission-%d").setDaemon(true).build()), true);
+    }
+
+    /**
+     * Creates the limiter.
+     * @param maxHandshakes the number of handshakes in progress at once
+     * @param starter the executor starting the handshakes of the waiting connections
+     */
+    public HandshakeLimiter(int maxHandshakes, Executor starter) {
+        this(maxHandshakes, starter, false);
+    }
+
+    private HandshakeLimiter(int maxHandshakes, Executor starter, boolean owned) {
+        Preconditions.checkArgument(maxHandshakes > 0, "Max handshakes (%s) must be positive", maxHandshakes);
+        Preconditions.checkNotNull(starter);
+
+        this.maxHandshakes = maxHandshakes;
+        this.starter = starter;
+        this.ownedStarter = owned ? (ExecutorService)starter : null;
+    }
+
+    /**
+     * Starts the handshake of the accepted connection now, or once a handshake in progress finishes.
+     * @param channel the accepted connection
+     * @param start the task starting the handshake
+     */
+    public void admit(Channel channel, Runnable start) {
+        accepts.mark();
+        synchronized (this) {
+            if (handshaking.size() >= maxHandshakes) {
+                //  stop reading so that the switch is not served before its turn
+                channel.setReadable(false);
+                waiters.add(new Waiter(channel, start));
+                return;
+            }
+            handshaking.add(channel);
+        }
+        start.run();
+    }
+
+    /**
+     * Tells that the handshake of the connection has completed, and starts the next waiting one.
+     * @param channel the connection
+     */
+    public void completed(Channel channel) {
+        if (finish(channel)) {
+            handshakes.mark();
+        }
+    }
+
+    /**
+     * Tells that the handshake of the connection has failed or the connection is closed, and
+     * starts the next waiting one. It does nothing if the handshake has already finished.
+     * @param channel the connection
+     */
+    public void cancelled(Channel channel) {
+        finish(channel);
+    }
+
+    private boolean finish(Channel channel) {
+        Waiter next = null;
+        boolean finished;
+        synchronized (this) {
+            finished = handshaking.remove(channel);
+            if (!finished) {
+                removeWaiter(channel);
+                return false;
+            }
+            while (next == null && !waiters.isEmpty()) {
+                Waiter waiter = waiters.poll();
+                if (waiter.channel.isOpen()) {
+                    next = waiter;
+                    handshaking.add(waiter.channel);
+                }
+            }
+        }
+
+        if (next != null) {
+            start(next);
+        }
+        return finished;
+    }
+
+    private void start(final Waiter waiter) {
+        try {
+            starter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    waiter.channel.setReadable(true);
+                    waiter.start.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //  the controller is stopping
+            log.warn("Handshake of {} was not started", waiter.channel.getRemoteAddress());
+            waiter.channel.close();
+        }
+    }
+
+    private void removeWaiter(Channel channel) {
+        for (Waiter waiter: waiters) {
+            if (waiter.channel == channel) {
+                waiters.remove(waiter);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the thread starting the waiting connections, if the limiter created it.
+     */
+    public void stop() {
+        if (ownedStarter != null) {
+            ownedStarter.shutdown();
+        }
+    }
+
+    public synchronized int handshakesInProgress() {
+        return handshaking.size();
+    }
+
+    public synchronized int waitingConnections() {
+        return waiters.size();
+    }
+
+    /**
+     * Returns the one-minute average rate of accepted connections.
+     * @return connections per second
+     */
+    public double acceptRate() {
+        return accepts.rate();
+    }
+
+    /**
+     * Returns the one-minute average rate of completed handshakes.
+     * @return handshakes per second
+     */
+    public double handshakeRate() {
+        return handshakes.rate();
+    }
+}
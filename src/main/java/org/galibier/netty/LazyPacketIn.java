@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.galibier.packet.EthernetType;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PACKET_IN whose body is decoded on demand. The header is decoded eagerly, the fixed fields
+ * are read from the received bytes when they are accessed, and the packet data is copied out
+ * only when {@link #getPacketData()} or a method needing the whole message is called.
+ *
+ * Until it is materialized, the message refers to the buffer it was read from, so the buffer
+ * must not be modified afterwards. OpenFlowFrameDecoder guarantees it.
+ */
+public class LazyPacketIn extends OFPacketIn {
+    private static final int BUFFER_ID_OFFSET = 8;
+    private static final int TOTAL_LENGTH_OFFSET = 12;
+    private static final int IN_PORT_OFFSET = 14;
+    private static final int REASON_OFFSET = 16;
+    private static final int DATA_OFFSET = 18;
+    //  offsets in the Ethernet frame
+    private static final int ETHER_TYPE_OFFSET = 12;
+    private static final int VLAN_TAG_LENGTH = 4;
+
+    //  the whole message, positioned at its header, or null once materialized
+    private volatile ByteBuffer source;
+
+    @Override
+    public void readFrom(ByteBuffer data) {
+        int start = data.position();
+        setVersion(data.get());
+        setType(OFType.valueOf(data.get()));
+        setLength(data.getShort());
+        setXid(data.getInt());
+
+        ByteBuffer view = data.duplicate();
+        view.position(start);
+        view.limit(start + getLengthU());
+        source = view;
+        data.position(start + getLengthU());
+    }
+
+    /**
+     * Returns true if the body has been decoded.
+     * @return true if the message no longer refers to the received buffer
+     */
+    public boolean isMaterialized() {
+        return source == null;
+    }
+
+    private synchronized void materialize() {
+        ByteBuffer view = source;
+        if (view != null) {
+            //  the header may have been modified since it was read, e.g. by setXid()
+            byte version = getVersion();
+            OFType type = getType();
+            short length = getLength();
+            int xid = getXid();
+            super.readFrom(view.duplicate());
+            setVersion(version);
+            setType(type);
+            setLength(length);
+            setXid(xid);
+            source = null;
+        }
+    }
+
+    @Override
+    public int getBufferId() {
+        ByteBuffer view = source;
+        if (view != null) {
+            return view.getInt(view.position() + BUFFER_ID_OFFSET);
+        }
+        return super.getBufferId();
+    }
+
+    @Override
+    public OFPacketIn setBufferId(int bufferId) {
+        materialize();
+        return super.setBufferId(bufferId);
+    }
+
+    @Override
+    public short getTotalLength() {
+        ByteBuffer view = source;
+        if (view != null) {
+            return view.getShort(view.position() + TOTAL_LENGTH_OFFSET);
+        }
+        return super.getTotalLength();
+    }
+
+    @Override
+    public OFPacketIn setTotalLength(short totalLength) {
+        materialize();
+        return super.setTotalLength(totalLength);
+    }
+
+    @Override
+    public short getInPort() {
+        ByteBuffer view = source;
+        if (view != null) {
+            return view.getShort(view.position() + IN_PORT_OFFSET);
+        }
+        return super.getInPort();
+    }
+
+    @Override
+    public OFPacketIn setInPort(short inPort) {
+        materialize();
+        return super.setInPort(inPort);
+    }
+
+    @Override
+    public OFPacketInReason getReason() {
+        ByteBuffer view = source;
+        if (view != null) {
+            return OFPacketInReason.values()[view.get(view.position() + REASON_OFFSET)];
+        }
+        return super.getReason();
+    }
+
+    @Override
+    public OFPacketIn setReason(OFPacketInReason reason) {
+        materialize();
+        return super.setReason(reason);
+    }
+
+    /**
+     * Returns the EtherType of the packet, looking through a VLAN tag, without decoding the body.
+     * @param in the PACKET_IN message
+     * @return the EtherType, or -1 if the packet data is too short
+     */
+    public static int etherTypeOf(OFPacketIn in) {
+        if (in instanceof LazyPacketIn) {
+            ByteBuffer view = ((LazyPacketIn)in).source;
+            if (view != null) {
+                int data = view.position() + DATA_OFFSET;
+                return etherType(view, data, view.limit() - data);
+            }
+        }
+
+        byte[] data = in.getPacketData();
+        if (data == null) {
+            return -1;
+        }
+        return etherType(ByteBuffer.wrap(data), 0, data.length);
+    }
+
+    private static int etherType(ByteBuffer frame, int offset, int length) {
+        if (length < ETHER_TYPE_OFFSET + 2) {
+            return -1;
+        }
+        int type = frame.getShort(offset + ETHER_TYPE_OFFSET) & 0xffff;
+        if (type != EthernetType.TAG_VLAN) {
+            return type;
+        }
+        if (length < ETHER_TYPE_OFFSET + VLAN_TAG_LENGTH + 2) {
+            return -1;
+        }
+        return frame.getShort(offset + ETHER_TYPE_OFFSET + VLAN_TAG_LENGTH) & 0xffff;
+    }
+
+    @Override
+    public byte[] getPacketData() {
+        materialize();
+        return super.getPacketData();
+    }
+
+    @Override
+    public OFPacketIn setPacketData(byte[] packetData) {
+        materialize();
+        return super.setPacketData(packetData);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer data) {
+        materialize();
+        super.writeTo(data);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        materialize();
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        materialize();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        materialize();
+        return super.toString();
+    }
+}
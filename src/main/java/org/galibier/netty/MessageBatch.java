@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.galibier.core.OFMessageFuture;
+
+/**
+ * Messages sent with consecutive XIDs and followed by a barrier. The barrier fails if one of the
+ * messages fails, e.g. it is dropped before being written or the switch answers it with an ERROR.
+ */
+class MessageBatch {
+    private final int firstXid;
+    //  XIDs from firstXid to firstXid + span, including the barrier
+    private final int span;
+    //  guarded by this
+    private OFMessageFuture barrier;
+    private Throwable failure;
+
+    MessageBatch(int firstXid, int span) {
+        this.firstXid = firstXid;
+        this.span = span;
+    }
+
+    /**
+     * Returns true if the XID is in the range from the first XID to the first XID plus the span.
+     * XIDs may wrap around from 0xffffffff to 0.
+     */
+    static boolean xidInRange(int firstXid, int span, int xid) {
+        return ((xid - firstXid) & 0xffffffffL) <= (span & 0xffffffffL);
+    }
+
+    boolean contains(int xid) {
+        return xidInRange(firstXid, span, xid);
+    }
+
+    /**
+     * Fails the batch when the future of a message fails.
+     */
+    void watch(final OFMessageFuture future) {
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                Throwable cause = future.getCause();
+                if (cause != null) {
+                    fail(cause);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Fails the barrier, or remembers the failure until the barrier is written.
+     */
+    void fail(Throwable cause) {
+        OFMessageFuture written;
+        synchronized (this) {
+            written = barrier;
+            if (written == null && failure == null) {
+                failure = cause;
+            }
+        }
+        //  the listeners of the future run outside the lock
+        if (written != null) {
+            written.setFailure(cause);
+        }
+    }
+
+    void setBarrier(OFMessageFuture barrier) {
+        Throwable cause;
+        synchronized (this) {
+            this.barrier = barrier;
+            cause = failure;
+        }
+        if (cause != null) {
+            barrier.setFailure(cause);
+        }
+    }
+}
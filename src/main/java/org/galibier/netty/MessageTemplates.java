@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import com.google.common.base.Preconditions;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFSetConfig;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.factory.OFMessageFactory;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.galibier.core.Constants.*;
+
+/**
+ * Pre-encoded byte images of the fixed-shape messages sent by the controller. Sending one of
+ * them only copies the image and patches the XID, so no OFMessage is created nor serialized.
+ */
+public class MessageTemplates {
+    private static final OFMessageFactory factory = new BasicFactory();
+    private static final int TIMESTAMP_LENGTH = 8;
+    private static final Map<OFType, byte[]> images = new EnumMap<OFType, byte[]>(OFType.class);
+    private static final byte[] timestampedEchoRequest;
+
+    static {
+        images.put(OFType.HELLO, serialize(factory.getMessage(OFType.HELLO)));
+        images.put(OFType.ECHO_REQUEST, serialize(factory.getMessage(OFType.ECHO_REQUEST)));
+        images.put(OFType.FEATURES_REQUEST, serialize(factory.getMessage(OFType.FEATURES_REQUEST)));
+        images.put(OFType.GET_CONFIG_REQUEST, serialize(factory.getMessage(OFType.GET_CONFIG_REQUEST)));
+        images.put(OFType.BARRIER_REQUEST, serialize(factory.getMessage(OFType.BARRIER_REQUEST)));
+
+        OFSetConfig config = (OFSetConfig)factory.getMessage(OFType.SET_CONFIG);
+        config.setMissSendLength((short)0xffff).setLengthU(OFSetConfig.MINIMUM_LENGTH);
+        images.put(OFType.SET_CONFIG, serialize(config));
+
+        //  ECHO_REQUEST followed by a 64-bit timestamp as its payload
+        byte[] echo = images.get(OFType.ECHO_REQUEST);
+        timestampedEchoRequest = new byte[echo.length + TIMESTAMP_LENGTH];
+        System.arraycopy(echo, 0, timestampedEchoRequest, 0, echo.length);
+        ByteBuffer.wrap(timestampedEchoRequest).putShort(LENGTH_FIELD_OFFSET, (short)timestampedEchoRequest.length);
+    }
+
+    //  preventing to create a instance
+    private MessageTemplates() {}
+
+    private static byte[] serialize(OFMessage message) {
+        ByteBuffer buffer = ByteBuffer.allocate(message.getLengthU());
+        message.writeTo(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Returns true if the message type has a template.
+     * @param type the message type
+     * @return true if {@link #encode(OFType, int)} accepts the type
+     */
+    public static boolean hasTemplate(OFType type) {
+        return images.containsKey(type);
+    }
+
+    /**
+     * Returns the encoded message of the type with the XID.
+     * @param type the message type which has a template
+     * @param xid the transaction ID of the message
+     * @return the encoded message
+     */
+    public static ChannelBuffer encode(OFType type, int xid) {
+        byte[] image = images.get(type);
+        Preconditions.checkArgument(image != null, "No template for %s", type);
+
+        return patch(image, xid);
+    }
+
+    /**
+     * Returns the encoded ECHO_REQUEST carrying the timestamp as its payload. The switch
+     * copies the payload into the ECHO_REPLY.
+     * @param xid the transaction ID of the message
+     * @param timestamp the timestamp
+     * @return the encoded message
+     */
+    public static ChannelBuffer encodeEchoRequest(int xid, long timestamp) {
+        ChannelBuffer buffer = patch(timestampedEchoRequest, xid);
+        buffer.setLong(OFMessage.MINIMUM_LENGTH, timestamp);
+        return buffer;
+    }
+
+    private static ChannelBuffer patch(byte[] image, int xid) {
+        ChannelBuffer buffer = ChannelBuffers.buffer(image.length);
+        buffer.writeBytes(image);
+        buffer.setInt(XID_FIELD_OFFSET, xid);
+        return buffer;
+    }
+}
@@ -25,8 +25,12 @@
 
 package org.galibier.netty;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import org.galibier.core.*;
+import org.galibier.util.RttEstimator;
+import org.galibier.util.WheelTimer;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.util.Timeout;
 import org.openflow.protocol.*;
 import org.openflow.protocol.factory.BasicFactory;
 import org.openflow.protocol.factory.OFMessageFactory;
@@ -34,49 +38,116 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import static org.galibier.core.Constants.*;
 
 public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler implements MessageDispatcher {
     private static final Logger log = LoggerFactory.getLogger(OpenFlowControllerHandler.class);
     private static final OFMessageFactory factory = new BasicFactory();
-    private static final long ECHO_REQUEST_INTERVAL = 5000; // milli sec
-    private static final long FEATURES_REQUEST_INTERVAL = 5000; //  milli sec
-    private static final long ECHO_REQUEST_TIMEOUT = 10000;
+    private static final int MAX_HANDSHAKE_ATTEMPTS = 3;
+    //  liveness is checked several times per idle interval
+    private static final int KEEPALIVE_CHECKS_PER_IDLE_INTERVAL = 4;
+    private static final long NO_PROBE = Long.MIN_VALUE;
+    private static final long REQUEST_EXPIRY_INTERVAL = 1000; // milli sec
 
-    private final ScheduledExecutorService timer;
+    private final WheelTimer timer;
 
     private final Controller controller;
     private Switch client;
     private Channel channel;
+    private OpenFlowWriteCoalescer coalescer;
+    private OutboundQueue outboundQueue;
 
-    private final AtomicLong lastEchoRequestedTimeMillis = new AtomicLong();
+    private final RttEstimator rttEstimator;
+    private volatile long lastReadNanos;
+    //  the time the outstanding ECHO_REQUEST was sent, or NO_PROBE
+    private volatile long probeSentNanos = NO_PROBE;
 
     private final AtomicInteger nextTransactionId = new AtomicInteger(0);
-    private final ConcurrentMap<Integer, OFMessageFuture> pendingOperations =
-            new ConcurrentHashMap<Integer, OFMessageFuture>();
-    private ScheduledFuture<?> featuresRequestTask;
-    private ScheduledFuture<?> echoRequestTask;
-    private ScheduledFuture<?> heartbeatCheckTask;
-
-    public OpenFlowControllerHandler(Controller controller, ScheduledExecutorService timer) {
+    private final PendingRequestTable pendingOperations = new PendingRequestTable();
+    //  batches whose BARRIER_REPLY has not arrived, failed by an ERROR within their XID range
+    private final Queue<MessageBatch> openBatches = new ConcurrentLinkedQueue<MessageBatch>();
+    //  guarded by this
+    private HandshakeState handshakeState = HandshakeState.WAIT_REPLIES;
+    private boolean featuresReceived;
+    private boolean configReceived;
+    private int handshakeAttempts;
+    private Timeout handshakeTimeout;
+    private long connectedNanos;
+    private volatile long handshakeNanos = -1;
+    private WheelTimer.PeriodicTask requestExpiryTask;
+    private WheelTimer.PeriodicTask keepaliveTask;
+
+    public OpenFlowControllerHandler(Controller controller, WheelTimer timer) {
         this.controller = controller;
         this.timer = timer;
+        this.rttEstimator = new RttEstimator(
+                TimeUnit.MILLISECONDS.toNanos(controller.keepaliveMinTimeoutMillis()),
+                TimeUnit.MILLISECONDS.toNanos(controller.keepaliveMaxTimeoutMillis()));
     }
 
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-        if (e.getMessage() instanceof OFMessage) {
-            OFMessage in = (OFMessage)e.getMessage();
+        //  any message shows that the switch is alive
+        lastReadNanos = System.nanoTime();
+        probeSentNanos = NO_PROBE;
+
+        //  messages sent while handling the received messages are written together
+        if (coalescer != null) {
+            coalescer.beginBatch();
+        }
+
+        try {
+            if (e.getMessage() instanceof OFMessage) {
+                OFMessage in = (OFMessage)e.getMessage();
+                handleMessage(in);
+            } else if (e.getMessage() instanceof List) {
+                //  a batch of messages decoded from one socket read by OpenFlowFrameDecoder
+                handleMessages((List<?>)e.getMessage());
+            }
+        } finally {
+            if (coalescer != null) {
+                coalescer.endBatch();
+            }
+        }
+    }
+
+    private void handleMessages(List<?> messages) {
+        //  consecutive PACKET_IN messages are passed to the controller together,
+        //  keeping the order with the other messages
+        List<OFPacketIn> packetIns = null;
+        for (Object message: messages) {
+            OFMessage in = (OFMessage)message;
+            if (in.getType() == OFType.PACKET_IN && client != null) {
+                if (packetIns == null) {
+                    packetIns = new ArrayList<OFPacketIn>(messages.size());
+                }
+                packetIns.add((OFPacketIn)in);
+                continue;
+            }
+
+            if (packetIns != null) {
+                controller.handlePacketIns(client, packetIns);
+                packetIns = null;
+            }
             handleMessage(in);
         }
+        if (packetIns != null) {
+            controller.handlePacketIns(client, packetIns);
+        }
     }
 
     @Override
     public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        coalescer = ctx.getPipeline().get(OpenFlowWriteCoalescer.class);
+        outboundQueue = new OutboundQueue(ctx, controller.outboundQueueCapacity(), controller.overflowPolicy());
         switchConnected(ctx.getChannel());
     }
 
@@ -85,6 +156,14 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
         switchDisconnected();
     }
 
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        //  the channel may have become writable again
+        if (outboundQueue != null) {
+            outboundQueue.drain();
+        }
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
         log.warn("Exception occurred", e.getCause());
@@ -160,13 +239,27 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
     }
 
     private void handleHello(OFHello in) {
-        send(factory.getMessage(OFType.FEATURES_REQUEST));
+        //  FEATURES_REQUEST was already sent with HELLO
+        log.debug("HELLO received from {}", client);
     }
 
     private void handleError(OFError in) {
         //  TODO: implement more solid codes
         log.info("OpenFlow error occurred, error type: {}, error code: {}, ",
                 in.getErrorType(), in.getErrorCode());
+
+        //  the error may answer a pending request
+        OFMessageFuture future = pendingOperations.remove(in.getXid());
+        if (future != null) {
+            future.setFailure(new OFErrorException(in));
+        }
+
+        //  or a message of a batch
+        for (MessageBatch batch: openBatches) {
+            if (batch.contains(in.getXid())) {
+                batch.fail(new OFErrorException(in));
+            }
+        }
     }
 
     private void handleEchoRequest(OFEchoRequest in) {
@@ -177,6 +270,15 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
 
     private void handleEchoReply(OFEchoReply in) {
         terminateRequest(in);
+
+        //  the payload is the timestamp of the ECHO_REQUEST sent by checkLiveness()
+        byte[] payload = in.getPayload();
+        if (payload != null && payload.length >= 8) {
+            long rtt = System.nanoTime() - ByteBuffer.wrap(payload).getLong();
+            if (rtt >= 0) {
+                rttEstimator.update(rtt);
+            }
+        }
     }
 
     private void handleVendor(OFVendor in) {
@@ -189,9 +291,22 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
 
     private void handleFeaturesReply(OFFeaturesReply in) {
         terminateRequest(in);
+        int completedAttempts;
+        synchronized (this) {
+            //  a reply to a retried request
+            if (featuresReceived) {
+                return;
+            }
+            featuresReceived = true;
+            completedAttempts = updateHandshakeState();
+        }
         client.setFeatures(in);
 
+        //  the switch is usable with its features, even if GET_CONFIG_REPLY is still awaited
         controller.switchHandshaken(client);
+        if (completedAttempts > 0) {
+            handshakeCompleted(completedAttempts);
+        }
     }
 
     private void handleGetConfigRequest(OFGetConfigRequest in) {
@@ -201,10 +316,13 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
     private void handleGetConfigReply(OFGetConfigReply in) {
         terminateRequest(in);
 
-        //  if this GET_CONFIG_REPLY is corresponds to the startSendFeatureRequestPeriodically,
-        //  stop the task
-        if (!featuresRequestTask.isCancelled()) {
-            stopSendFeaturesRequestPeriodically();
+        int completedAttempts;
+        synchronized (this) {
+            configReceived = true;
+            completedAttempts = updateHandshakeState();
+        }
+        if (completedAttempts > 0) {
+            handshakeCompleted(completedAttempts);
         }
     }
 
@@ -241,7 +359,21 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
     }
 
     private void handleStatisticsReply(OFStatisticsReply in) {
-        terminateRequest(in);
+        int xid = in.getXid();
+        boolean last = (in.getFlags() & OFStatisticsFuture.REPLY_MORE) == 0;
+        //  every part extends the deadline of a multipart reply
+        OFMessageFuture future = last ? pendingOperations.remove(xid) : pendingOperations.refresh(xid, requestDeadline());
+        if (future instanceof OFStatisticsFuture) {
+            ((OFStatisticsFuture)future).addPart(in);
+            if (!last && future.isDone()) {
+                //  failed by its callback, so the remaining parts are not waited for
+                pendingOperations.remove(xid);
+            }
+        } else if (future != null) {
+            future.setReply(in);
+        } else {
+            log.warn("The request corresponding to {} (Xid={}) was already processed", in.getType(), xid);
+        }
     }
 
     private void handleBarrierRequest(OFBarrierRequest in) {
@@ -261,68 +393,182 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
         this.client = new Switch(this);
         log.info("Connected from {}", client);
 
-        send(factory.getMessage(OFType.HELLO));
+        connectedNanos = System.nanoTime();
+        startHandshake();
 
-        //  sending echo request periodically
-        echoRequestTask = timer.scheduleAtFixedRate(new Runnable() {
+        //  probe the switch with ECHO_REQUEST only while nothing is received from it
+        lastReadNanos = System.nanoTime();
+        long checkInterval = Math.max(1, controller.keepaliveIdleMillis() / KEEPALIVE_CHECKS_PER_IDLE_INTERVAL);
+        keepaliveTask = timer.schedulePeriodically(new Runnable() {
             @Override
             public void run() {
-                send(factory.getMessage(OFType.ECHO_REQUEST));
-                lastEchoRequestedTimeMillis.set(System.currentTimeMillis());
+                checkLiveness();
             }
-        }, ECHO_REQUEST_INTERVAL, ECHO_REQUEST_INTERVAL, TimeUnit.MILLISECONDS);
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
 
-        //  start the heartbeat check scheduled task
-        heartbeatCheckTask = timer.scheduleAtFixedRate(new Runnable() {
+        //  complete the requests that the switch did not answer in time
+        requestExpiryTask = timer.schedulePeriodically(new Runnable() {
             @Override
             public void run() {
-                long current = System.currentTimeMillis();
-                if (current - lastEchoRequestedTimeMillis.get() > ECHO_REQUEST_TIMEOUT) {
-                    log.warn("Disconnect due to echo reply timeout");
-                    stop();
-                }
+                expireRequests();
             }
-        }, ECHO_REQUEST_TIMEOUT, ECHO_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+        }, REQUEST_EXPIRY_INTERVAL, REQUEST_EXPIRY_INTERVAL, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * States of the handshake with the switch. The requests are pipelined right after HELLO,
+     * so the handshake only waits for the replies.
+     */
+    private enum HandshakeState {
+        //  waiting for FEATURES_REPLY and GET_CONFIG_REPLY
+        WAIT_REPLIES,
+        //  FEATURES_REPLY received, waiting for GET_CONFIG_REPLY
+        WAIT_CONFIG_REPLY,
+        //  GET_CONFIG_REPLY received, waiting for FEATURES_REPLY
+        WAIT_FEATURES_REPLY,
+        COMPLETED,
+        FAILED
+    }
+
+    private void startHandshake() {
+        //  the version negotiation does not need to finish before the requests (OpenFlow 1.0 section 6.3.1)
+        if (coalescer != null) {
+            coalescer.beginBatch();
+        }
+        try {
+            sendTemplate(OFType.HELLO);
+            sendHandshakeRequests();
+        } finally {
+            if (coalescer != null) {
+                coalescer.endBatch();
+            }
+        }
+    }
 
-        //  sending FEATURES REQUEST periodically until FEATURES REPLY is received
-        featuresRequestTask = timer.scheduleAtFixedRate(new Runnable() {
+    private synchronized void sendHandshakeRequests() {
+        handshakeAttempts++;
+        if (!featuresReceived) {
+            sendTemplate(OFType.FEATURES_REQUEST);
+        }
+        if (!configReceived) {
+            sendTemplate(OFType.SET_CONFIG);
+            sendTemplate(OFType.GET_CONFIG_REQUEST);
+        }
+
+        //  the requests are sent again only if the replies do not arrive in time
+        handshakeTimeout = timer.schedule(new Runnable() {
             @Override
             public void run() {
-                if (client.isHandshaken()) {
-                    OFSetConfig config = (OFSetConfig) factory.getMessage(OFType.SET_CONFIG);
-                    config.setMissSendLength((short)0xffff).setLengthU(OFSetConfig.MINIMUM_LENGTH);
-                    send(config);
-                    send(factory.getMessage(OFType.GET_CONFIG_REQUEST));
-                } else {
-                    send(factory.getMessage(OFType.FEATURES_REQUEST));
-                }
+                handshakeTimedOut();
             }
-        }, FEATURES_REQUEST_INTERVAL, FEATURES_REQUEST_INTERVAL, TimeUnit.MILLISECONDS);
+        }, controller.handshakeTimeoutMillis(), TimeUnit.MILLISECONDS);
     }
 
-    private void stopSendFeaturesRequestPeriodically() {
-        if (featuresRequestTask != null) {
-            featuresRequestTask.cancel(false);
+    private void handshakeTimedOut() {
+        synchronized (this) {
+            if (handshakeState == HandshakeState.COMPLETED || handshakeState == HandshakeState.FAILED) {
+                return;
+            }
+            if (handshakeAttempts < MAX_HANDSHAKE_ATTEMPTS) {
+                Object[] args = {client, handshakeState, handshakeAttempts};
+                log.info("Handshake with {} timed out in {} (attempt {}), retrying", args);
+                sendHandshakeRequests();
+                return;
+            }
+            handshakeState = HandshakeState.FAILED;
         }
+        controller.handshakeLimiter().cancelled(channel);
+
+        log.warn("Disconnect {} due to handshake timeout after {} attempts", client, MAX_HANDSHAKE_ATTEMPTS);
+        channel.close();
+    }
+
+    /**
+     * Moves the handshake to the state reflecting the replies received so far. Called with the lock held.
+     * @return the number of attempts if the handshake has just completed, otherwise 0
+     */
+    private int updateHandshakeState() {
+        if (handshakeState == HandshakeState.COMPLETED || handshakeState == HandshakeState.FAILED) {
+            return 0;
+        }
+        if (featuresReceived && configReceived) {
+            handshakeState = HandshakeState.COMPLETED;
+            handshakeNanos = System.nanoTime() - connectedNanos;
+            stopHandshakeTimeout();
+            return handshakeAttempts;
+        } else if (featuresReceived) {
+            handshakeState = HandshakeState.WAIT_CONFIG_REPLY;
+        } else if (configReceived) {
+            handshakeState = HandshakeState.WAIT_FEATURES_REPLY;
+        }
+        return 0;
+    }
+
+    //  called without the lock once the state has become COMPLETED
+    private void handshakeCompleted(int attempts) {
+        Object[] args = {client, TimeUnit.NANOSECONDS.toMillis(handshakeNanos), attempts};
+        log.info("Handshake with {} completed in {} ms ({} attempts)", args);
+        //  let the next waiting switch start its handshake
+        controller.handshakeLimiter().completed(channel);
     }
 
-    private void stopSendEchoRequestPeriodically() {
-        if (echoRequestTask != null) {
-            echoRequestTask.cancel(false);
+    private synchronized void stopHandshakeTimeout() {
+        if (handshakeTimeout != null) {
+            handshakeTimeout.cancel();
         }
     }
 
-    private void stopHeartbeatCheckTask() {
-        if (heartbeatCheckTask != null) {
-            heartbeatCheckTask.cancel(false);
+    private void stopKeepaliveTask() {
+        if (keepaliveTask != null) {
+            keepaliveTask.cancel();
+        }
+    }
+
+    private void checkLiveness() {
+        long now = System.nanoTime();
+        long probe = probeSentNanos;
+        if (probe != NO_PROBE) {
+            long timeout = rttEstimator.timeoutNanos();
+            if (now - probe > timeout) {
+                Object[] args = {client, TimeUnit.NANOSECONDS.toMillis(timeout),
+                        TimeUnit.NANOSECONDS.toMicros(rttEstimator.smoothedRttNanos())};
+                log.warn("Disconnect {} due to echo reply timeout ({} ms, srtt {} us)", args);
+                channel.close();
+            }
+            return;
+        }
+
+        if (now - lastReadNanos >= TimeUnit.MILLISECONDS.toNanos(controller.keepaliveIdleMillis())) {
+            probeSentNanos = now;
+            int xid = nextTransactionId.incrementAndGet();
+            write(MessageTemplates.encodeEchoRequest(xid, now), OFType.ECHO_REQUEST, xid);
+        }
+    }
+
+    private void stopRequestExpiryTask() {
+        if (requestExpiryTask != null) {
+            requestExpiryTask.cancel();
+        }
+    }
+
+    private void expireRequests() {
+        for (OFMessageFuture future: pendingOperations.expire(System.nanoTime())) {
+            Object[] args = {future.transactionId(), client, controller.requestTimeoutMillis()};
+            log.debug("Request (xid={}) to {} was not answered in {} ms", args);
+            future.setTimedOut();
         }
     }
 
     private void switchDisconnected() {
         log.info("Disconnected from {}", client);
-        stopSendEchoRequestPeriodically();
-        stopSendFeaturesRequestPeriodically();
-        stopHeartbeatCheckTask();
+        stopKeepaliveTask();
+        stopHandshakeTimeout();
+        stopRequestExpiryTask();
+        outboundQueue.clear();
+        for (OFMessageFuture future: pendingOperations.clear()) {
+            future.setFailure(new ClosedChannelException());
+        }
 
         //  tell the parent that the connection to a switch is released
         controller.switchDisconnected(client);
@@ -346,33 +592,107 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
         if (autoXid) {
             out.setXid(nextTransactionId.incrementAndGet());
         }
-        
+
+        return write(out, out.getType(), out.getXid());
+    }
+
+    /**
+     * Asynchronously sends a pre-encoded message of the type with a newly assigned XID.
+     * @param type the message type, which must have a template in MessageTemplates
+     * @return the OFMessageFuture which will be notified if the message is a kind of request messages
+     */
+    private OFMessageFuture sendTemplate(OFType type) {
+        int xid = nextTransactionId.incrementAndGet();
+        return write(MessageTemplates.encode(type, xid), type, xid);
+    }
+
+    private OFMessageFuture write(Object out, OFType type, int xid) {
+        return write(out, type, xid, null);
+    }
+
+    private OFMessageFuture write(Object out, OFType type, int xid, StatisticsCallback callback) {
         if (channel != null && channel.isConnected()) {
-            ChannelFuture future = channel.write(out);
-            OFMessageFuture messageFuture = new OFMessageFuture(out, future);
-            if (REQUEST_TYPE.contains(out.getType())) {
-                pendingOperations.putIfAbsent(out.getXid(), messageFuture);
+            ChannelFuture future = outboundQueue.write(out, type);
+            OFMessageFuture messageFuture = newFuture(type, xid, future, callback);
+            //  a dropped request is never answered
+            if (REQUEST_TYPE.contains(type) && !(future.isDone() && !future.isSuccess())) {
+                pendingOperations.put(xid, messageFuture, requestDeadline());
             }
-            Object[] args = {out.getType(), out.getXid(), client};
+            Object[] args = {type, xid, client};
             log.debug("{} (xid={}) sent to {}", args);
             return messageFuture;
         } else {
-            return new OFMessageFuture(out, null);
+            return newFuture(type, xid, null, callback);
         }
     }
 
+    private static OFMessageFuture newFuture(OFType type, int xid, ChannelFuture future, StatisticsCallback callback) {
+        if (type == OFType.STATS_REQUEST) {
+            return new OFStatisticsFuture(xid, future, callback);
+        }
+        return new OFMessageFuture(type, xid, future);
+    }
+
+    private long requestDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(controller.requestTimeoutMillis());
+    }
+
     @Override
     public OFMessageFuture send(OFMessage msg) {
         return send(msg, true);
     }
 
+    @Override
+    public OFMessageFuture send(EncodedMessage msg) {
+        int xid = nextTransactionId.incrementAndGet();
+        return write(msg.encode(xid), msg.type(), xid);
+    }
+
+    @Override
+    public OFStatisticsFuture sendStatistics(OFStatisticsRequest request, StatisticsCallback callback) {
+        request.setXid(nextTransactionId.incrementAndGet());
+        return (OFStatisticsFuture)write(request, OFType.STATS_REQUEST, request.getXid(), callback);
+    }
+
+    @Override
+    public OFMessageFuture sendBatch(List<OFMessage> msgs) {
+        //  reserve the XIDs of the messages and the barrier at once
+        int firstXid = nextTransactionId.getAndAdd(msgs.size() + 1) + 1;
+        //  registered first since an ERROR may answer the first messages before the others are written
+        final MessageBatch batch = new MessageBatch(firstXid, msgs.size());
+        openBatches.add(batch);
+
+        int xid = firstXid;
+        for (OFMessage msg: msgs) {
+            msg.setXid(xid++);
+            //  e.g. a FLOW_MOD dropped by the outbound queue fails the batch
+            batch.watch(write(msg, msg.getType(), msg.getXid()));
+        }
+
+        //  the switch processes all the preceding messages before replying to the barrier
+        final OFMessageFuture barrier = write(MessageTemplates.encode(OFType.BARRIER_REQUEST, xid), OFType.BARRIER_REQUEST, xid);
+        barrier.addListener(new Runnable() {
+            @Override
+            public void run() {
+                openBatches.remove(batch);
+                if (barrier.getCause() != null) {
+                    //  a failed batch is not waiting for the BARRIER_REPLY any more
+                    pendingOperations.remove(barrier.transactionId());
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        batch.setBarrier(barrier);
+
+        return barrier;
+    }
+
     /**
      * Stops the scheduled tasks associated with this handler and close the channel to the switch
      */
     public void stop() {
-        stopSendEchoRequestPeriodically();
-        stopSendFeaturesRequestPeriodically();
-        stopHeartbeatCheckTask();
+        stopKeepaliveTask();
+        stopHandshakeTimeout();
+        stopRequestExpiryTask();
         channel.getCloseFuture().awaitUninterruptibly();
     }
 
@@ -391,6 +711,31 @@ public class OpenFlowControllerHandler extends SimpleChannelUpstreamHandler impl
         return future != null;
     }
 
+    @Override
+    public boolean isWritable() {
+        return channel != null && channel.isWritable() && outboundQueue.size() == 0;
+    }
+
+    @Override
+    public int queuedMessages() {
+        return outboundQueue == null ? 0 : outboundQueue.size();
+    }
+
+    @Override
+    public long droppedMessages() {
+        return outboundQueue == null ? 0 : outboundQueue.droppedMessages();
+    }
+
+    @Override
+    public long expiredRequests() {
+        return pendingOperations.expiredRequests();
+    }
+
+    @Override
+    public long handshakeNanos() {
+        return handshakeNanos;
+    }
+
     @Override
     public InetSocketAddress remoteAddress() {
         //  current OpenFlow protocol does not support UDP/IP
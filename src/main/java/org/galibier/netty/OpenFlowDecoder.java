@@ -38,6 +38,21 @@ import java.util.List;
 
 public class OpenFlowDecoder extends OneToOneDecoder {
     OFMessageFactory factory = new BasicFactory();
+    private final OpenFlowMessageReader reader = new OpenFlowMessageReader();
+    private final boolean zeroCopy;
+
+    public OpenFlowDecoder() {
+        this(false);
+    }
+
+    /**
+     * Creates a decoder.
+     * @param zeroCopy true when messages are parsed straight from the ChannelBuffer of a frame,
+     *                 false when the frame is converted to a ByteBuffer before parsing
+     */
+    public OpenFlowDecoder(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
 
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
@@ -46,6 +61,10 @@ public class OpenFlowDecoder extends OneToOneDecoder {
         }
 
         ChannelBuffer channelBuffer = (ChannelBuffer)msg;
+        if (zeroCopy) {
+            return reader.readMessage(channelBuffer);
+        }
+
         ByteBuffer byteBuffer = channelBuffer.toByteBuffer();
         List<OFMessage> messages = factory.parseMessages(byteBuffer);
         return messages.get(0);
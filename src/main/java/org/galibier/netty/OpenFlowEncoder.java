@@ -25,15 +25,57 @@
 
 package org.galibier.netty;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.*;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.openflow.protocol.OFMessage;
 
 import java.nio.ByteBuffer;
 
 public class OpenFlowEncoder extends OneToOneEncoder {
+    private final BufferArena arena;
+
+    public OpenFlowEncoder() {
+        this(null);
+    }
+
+    /**
+     * Creates an encoder.
+     * @param arena the arena which buffers of encoded messages are taken from and returned to
+     *              after the write completes, or null if a buffer is allocated for every message
+     */
+    public OpenFlowEncoder(BufferArena arena) {
+        this.arena = arena;
+    }
+
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+        if (arena == null || !(evt instanceof MessageEvent) || !(((MessageEvent)evt).getMessage() instanceof OFMessage)) {
+            super.handleDownstream(ctx, evt);
+            return;
+        }
+
+        MessageEvent e = (MessageEvent)evt;
+        OFMessage out = (OFMessage)e.getMessage();
+        final ByteBuffer buffer = arena.acquire(out.getLengthU());
+        try {
+            out.writeTo(buffer);
+            buffer.flip();
+        } catch (RuntimeException ex) {
+            arena.release(buffer);
+            throw ex;
+        }
+
+        //  the buffer is reusable once the write is completed or failed
+        e.getFuture().addListener(new ChannelFutureListener() {
+            public void operationComplete(ChannelFuture future) throws Exception {
+                arena.release(buffer);
+            }
+        });
+        Channels.write(ctx, e.getFuture(), ChannelBuffers.wrappedBuffer(buffer), e.getRemoteAddress());
+    }
+
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
         if (msg instanceof OFMessage) {
@@ -43,6 +85,10 @@ public class OpenFlowEncoder extends OneToOneEncoder {
             buffer.flip();
             return ChannelBuffers.wrappedBuffer(buffer);
         }
+        //  already encoded, e.g. by MessageTemplates
+        if (msg instanceof ChannelBuffer) {
+            return msg;
+        }
 
         return ChannelBuffers.EMPTY_BUFFER;
     }
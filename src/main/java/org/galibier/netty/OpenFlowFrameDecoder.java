@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.openflow.protocol.OFMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.galibier.core.Constants.*;
+
+/**
+ * Combined framer and decoder. All complete OpenFlow messages contained in a socket read are
+ * decoded in one pass and sent upstream as a single List&lt;OFMessage&gt; event.
+ *
+ * Decoded messages may refer to the memory of the received buffer, so a buffer is never
+ * modified once messages were read from it. Only a partial message at the end of a read is
+ * copied into a private buffer, which is dropped when the message is completed.
+ */
+public class OpenFlowFrameDecoder extends SimpleChannelUpstreamHandler {
+    private static final int INITIAL_BATCH_SIZE = 8;
+
+    private final OpenFlowMessageReader reader;
+    private ChannelBuffer partial;
+
+    public OpenFlowFrameDecoder() {
+        this(false);
+    }
+
+    /**
+     * Creates a decoder.
+     * @param lazy true if PACKET_IN messages are decoded lazily, see {@link LazyPacketIn}
+     */
+    public OpenFlowFrameDecoder(boolean lazy) {
+        this.reader = new OpenFlowMessageReader(lazy);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof ChannelBuffer)) {
+            ctx.sendUpstream(e);
+            return;
+        }
+
+        ChannelBuffer input = (ChannelBuffer)e.getMessage();
+        List<OFMessage> messages = new ArrayList<OFMessage>(INITIAL_BATCH_SIZE);
+
+        if (partial != null) {
+            completePartial(input);
+            if (!reader.hasMessage(partial)) {
+                return;
+            }
+            messages.add(reader.readMessage(partial));
+            partial = null;
+        }
+
+        while (reader.hasMessage(input)) {
+            messages.add(reader.readMessage(input));
+        }
+
+        if (input.readable()) {
+            partial = ChannelBuffers.dynamicBuffer(Math.max(input.readableBytes(), OFMessage.MINIMUM_LENGTH));
+            partial.writeBytes(input);
+        }
+
+        if (!messages.isEmpty()) {
+            Channels.fireMessageReceived(ctx, messages, e.getRemoteAddress());
+        }
+    }
+
+    /**
+     * Moves bytes from the input to the partial buffer, but no more than needed to complete
+     * the header and then the message.
+     */
+    private void completePartial(ChannelBuffer input) throws Exception {
+        if (partial.readableBytes() < OFMessage.MINIMUM_LENGTH) {
+            int needed = OFMessage.MINIMUM_LENGTH - partial.readableBytes();
+            partial.writeBytes(input, Math.min(needed, input.readableBytes()));
+            if (partial.readableBytes() < OFMessage.MINIMUM_LENGTH) {
+                return;
+            }
+        }
+
+        int length = partial.getUnsignedShort(partial.readerIndex() + LENGTH_FIELD_OFFSET);
+        int needed = length - partial.readableBytes();
+        if (needed > 0) {
+            partial.writeBytes(input, Math.min(needed, input.readableBytes()));
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        partial = null;
+        ctx.sendUpstream(e);
+    }
+}
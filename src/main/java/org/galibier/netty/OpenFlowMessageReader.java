@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.factory.OFActionFactoryAware;
+import org.openflow.protocol.factory.OFStatisticsFactoryAware;
+
+import static org.galibier.core.Constants.*;
+
+/**
+ * Reads OpenFlow messages directly from a ChannelBuffer. The header is read with absolute
+ * accessors and the body is parsed from a ByteBuffer view of the same memory, so the frame
+ * is never copied into an intermediate buffer before it is materialized.
+ *
+ * In the lazy mode PACKET_IN messages are returned as {@link LazyPacketIn}, which decodes
+ * its body only as far as the listeners access it.
+ */
+public class OpenFlowMessageReader {
+    private final BasicFactory factory = new BasicFactory();
+    private final boolean lazy;
+
+    public OpenFlowMessageReader() {
+        this(false);
+    }
+
+    /**
+     * Creates a reader.
+     * @param lazy true if messages supporting lazy decoding keep referring to the buffer
+     *             until their body is accessed, which requires the buffer to be never modified
+     */
+    public OpenFlowMessageReader(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Returns true if the buffer contains at least one complete OpenFlow message.
+     * @param buffer the buffer starting at an OpenFlow header
+     * @return true if a complete message can be read from the buffer
+     */
+    public boolean hasMessage(ChannelBuffer buffer) throws CorruptedFrameException {
+        if (buffer.readableBytes() < OFMessage.MINIMUM_LENGTH) {
+            return false;
+        }
+
+        return buffer.readableBytes() >= messageLength(buffer);
+    }
+
+    /**
+     * Reads an OpenFlow message starting at the reader index and advances the reader index
+     * to the end of the message. The caller must ensure {@link #hasMessage(ChannelBuffer)} is true.
+     * @param buffer the buffer starting at an OpenFlow header
+     * @return the parsed OpenFlow message
+     */
+    public OFMessage readMessage(ChannelBuffer buffer) throws CorruptedFrameException {
+        int index = buffer.readerIndex();
+        int length = messageLength(buffer);
+        OFType type = OFType.valueOf(buffer.getByte(index + TYPE_FIELD_OFFSET));
+        if (type == null) {
+            buffer.skipBytes(length);
+            throw new CorruptedFrameException("Unknown message type: " + buffer.getByte(index + TYPE_FIELD_OFFSET));
+        }
+
+        OFMessage message = newMessage(type);
+        if (message instanceof OFActionFactoryAware) {
+            ((OFActionFactoryAware)message).setActionFactory(factory);
+        }
+        if (message instanceof OFStatisticsFactoryAware) {
+            ((OFStatisticsFactoryAware)message).setStatisticsFactory(factory);
+        }
+
+        //  a view of the frame, not a copy, as long as the buffer is not a multi-component composite
+        message.readFrom(buffer.toByteBuffer(index, length));
+        buffer.skipBytes(length);
+
+        return message;
+    }
+
+    private OFMessage newMessage(OFType type) {
+        if (lazy && type == OFType.PACKET_IN) {
+            return new LazyPacketIn();
+        }
+        return factory.getMessage(type);
+    }
+
+    private int messageLength(ChannelBuffer buffer) throws CorruptedFrameException {
+        int length = buffer.getUnsignedShort(buffer.readerIndex() + LENGTH_FIELD_OFFSET);
+        if (length < OFMessage.MINIMUM_LENGTH) {
+            throw new CorruptedFrameException("Message length is shorter than the header: " + length);
+        }
+
+        return length;
+    }
+}
@@ -26,35 +26,49 @@
 package org.galibier.netty;
 
 import org.galibier.core.Controller;
+import org.galibier.util.WheelTimer;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
 
 import java.util.concurrent.ScheduledExecutorService;
 
-import static org.galibier.core.Constants.*;
-
 public class OpenFlowServerPipelineFactory implements ChannelPipelineFactory {
     private final Controller controller;
     private final ScheduledExecutorService timer;
+    private final WheelTimer wheelTimer;
 
-    public OpenFlowServerPipelineFactory(Controller controller, ScheduledExecutorService timer) {
+    /**
+     * Creates the factory.
+     * @param controller the controller
+     * @param timer the timer flushing coalesced writes, which needs a finer resolution than the wheel timer
+     * @param wheelTimer the timer running the periodic tasks of the connections
+     */
+    public OpenFlowServerPipelineFactory(Controller controller, ScheduledExecutorService timer, WheelTimer wheelTimer) {
         this.controller = controller;
         this.timer = timer;
+        this.wheelTimer = wheelTimer;
     }
 
     public ChannelPipeline getPipeline() throws Exception {
         ChannelPipeline pipeline = Channels.pipeline();
 
-        //  add the binary codec combination first
-        pipeline.addLast("framer", new LengthFieldBasedFrameDecoder(
-                MAXIMUM_PACKET_LENGTH, LENGTH_FIELD_OFFSET, LENGTH_FIELD_LENGTH, LENGTH_FIELD_MODIFICATION, 0));
-        pipeline.addLast("decoder", new OpenFlowDecoder());
-        pipeline.addLast("encoder", new OpenFlowEncoder());
+        //  hold new connections while too many handshakes are in progress
+        pipeline.addLast("accept", new HandshakeAdmissionHandler(controller.handshakeLimiter()));
+
+        //  add then the binary codec combination
+        pipeline.addLast("decoder", new OpenFlowFrameDecoder(controller.isLazyDecoding()));
+        if (controller.isWriteCoalescingEnabled()) {
+            pipeline.addLast("coalescer", new OpenFlowWriteCoalescer(timer,
+                    controller.writeCoalescingMaxDelayMillis(), controller.writeCoalescingMaxBytes()));
+        }
+        pipeline.addLast("encoder", new OpenFlowEncoder(controller.bufferArena()));
+
+        //  add then the admission control
+        pipeline.addLast("admission", new PacketInAdmissionHandler(controller));
 
         //  add then the business logic
-        pipeline.addLast("handler", new OpenFlowControllerHandler(controller, timer));
+        pipeline.addLast("handler", new OpenFlowControllerHandler(controller, wheelTimer));
 
         return pipeline;
     }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import com.google.common.base.Preconditions;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates encoded messages written to a channel and writes them as one composite buffer.
+ *
+ * Messages written by the I/O thread between {@link #beginBatch()} and {@link #endBatch()}
+ * are flushed at the end of the batch. Messages written by other threads are flushed after at
+ * most the maximum delay, and any pending messages are flushed as soon as they reach the
+ * maximum bytes.
+ */
+public class OpenFlowWriteCoalescer extends SimpleChannelDownstreamHandler {
+    private final ScheduledExecutorService timer;
+    private final long maxDelayMillis;
+    private final int maxBytes;
+
+    private final List<ChannelBuffer> pendingBuffers = new ArrayList<ChannelBuffer>();
+    private final List<ChannelFuture> pendingFutures = new ArrayList<ChannelFuture>();
+    private int pendingBytes;
+    private ChannelHandlerContext context;
+    private Thread batchThread;
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * Creates a coalescer.
+     * @param timer the timer flushing messages written outside of a batch
+     * @param maxDelayMillis the maximum time a message written outside of a batch is held,
+     *                       0 when such a message is written immediately
+     * @param maxBytes the pending bytes which cause an immediate flush
+     */
+    public OpenFlowWriteCoalescer(ScheduledExecutorService timer, long maxDelayMillis, int maxBytes) {
+        Preconditions.checkNotNull(timer);
+        Preconditions.checkArgument(maxDelayMillis >= 0);
+        Preconditions.checkArgument(maxBytes > 0);
+
+        this.timer = timer;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof ChannelBuffer)) {
+            flush();
+            ctx.sendDownstream(e);
+            return;
+        }
+
+        context = ctx;
+        ChannelBuffer buffer = (ChannelBuffer)e.getMessage();
+        pendingBuffers.add(buffer);
+        pendingFutures.add(e.getFuture());
+        pendingBytes += buffer.readableBytes();
+
+        if (pendingBytes >= maxBytes) {
+            flush();
+        } else if (batchThread == Thread.currentThread()) {
+            //  flushed by endBatch()
+        } else if (maxDelayMillis == 0) {
+            flush();
+        } else if (flushTask == null) {
+            flushTask = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts holding the messages written by the current thread until {@link #endBatch()}.
+     */
+    public synchronized void beginBatch() {
+        batchThread = Thread.currentThread();
+    }
+
+    /**
+     * Stops holding the messages and flushes all pending messages.
+     */
+    public synchronized void endBatch() {
+        batchThread = null;
+        flush();
+    }
+
+    /**
+     * Writes all pending messages as a single buffer. The futures of the original writes are
+     * notified when the combined write is completed.
+     */
+    public synchronized void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (pendingBuffers.isEmpty()) {
+            return;
+        }
+
+        //  the write is issued while holding the lock to keep the order of messages
+        if (pendingBuffers.size() == 1) {
+            Channels.write(context, pendingFutures.get(0), pendingBuffers.get(0));
+        } else {
+            ChannelBuffer combined = ChannelBuffers.wrappedBuffer(
+                    pendingBuffers.toArray(new ChannelBuffer[pendingBuffers.size()]));
+            final ChannelFuture[] futures = pendingFutures.toArray(new ChannelFuture[pendingFutures.size()]);
+            ChannelFuture combinedFuture = Channels.future(context.getChannel());
+            combinedFuture.addListener(new ChannelFutureListener() {
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    for (ChannelFuture f: futures) {
+                        if (future.isSuccess()) {
+                            f.setSuccess();
+                        } else {
+                            f.setFailure(future.getCause());
+                        }
+                    }
+                }
+            });
+            Channels.write(context, combinedFuture, combined);
+        }
+
+        pendingBuffers.clear();
+        pendingFutures.clear();
+        pendingBytes = 0;
+    }
+
+    @Override
+    public void disconnectRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        flush();
+        ctx.sendDownstream(e);
+    }
+
+    @Override
+    public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        flush();
+        ctx.sendDownstream(e);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import com.google.common.base.Preconditions;
+import org.galibier.core.OverflowPolicy;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.openflow.protocol.OFType;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of messages waiting for the channel to become writable. While the channel is
+ * writable and nothing is queued, messages are written immediately. Once the channel exceeds its
+ * high water mark, messages are queued and written again when it drops below the low water mark.
+ */
+public class OutboundQueue {
+    //  messages which are never dropped
+    private static final EnumSet<OFType> ESSENTIAL_TYPE =
+            EnumSet.of(
+                    OFType.HELLO,
+                    OFType.ERROR,
+                    OFType.ECHO_REQUEST,
+                    OFType.ECHO_REPLY,
+                    OFType.FEATURES_REQUEST,
+                    OFType.GET_CONFIG_REQUEST,
+                    OFType.SET_CONFIG,
+                    OFType.BARRIER_REQUEST
+            );
+
+    private final ChannelHandlerContext ctx;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    private final LinkedList<Entry> queue = new LinkedList<Entry>();
+    private int queuedPacketOuts;
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private static class Entry {
+        private final Object message;
+        private final OFType type;
+        private final ChannelFuture future;
+
+        private Entry(Object message, OFType type, ChannelFuture future) {
+            this.message = message;
+            this.type = type;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Creates a queue.
+     * @param ctx the context of the handler writing the messages
+     * @param capacity the number of messages queued before the overflow policy applies
+     * @param policy the overflow policy
+     */
+    public OutboundQueue(ChannelHandlerContext ctx, int capacity, OverflowPolicy policy) {
+        Preconditions.checkNotNull(ctx);
+        Preconditions.checkArgument(capacity > 0);
+        Preconditions.checkNotNull(policy);
+
+        this.ctx = ctx;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Writes the message or queues it if the channel is not writable.
+     * @param message the message, an OFMessage or an encoded ChannelBuffer
+     * @param type the type of the message
+     * @return the future of the write, which fails if the message was dropped
+     */
+    public synchronized ChannelFuture write(Object message, OFType type) {
+        ChannelFuture future = Channels.future(ctx.getChannel());
+        if (queue.isEmpty() && ctx.getChannel().isWritable()) {
+            Channels.write(ctx, future, message);
+            return future;
+        }
+
+        if (queue.size() >= capacity && !ESSENTIAL_TYPE.contains(type)) {
+            if (queuedPacketOuts > 0) {
+                dropOldestPacketOut();
+            } else if (type == OFType.PACKET_OUT || policy == OverflowPolicy.DROP_NEWEST) {
+                return drop(future);
+            } else {
+                Channels.close(ctx.getChannel());
+                return drop(future);
+            }
+        }
+
+        queue.add(new Entry(message, type, future));
+        if (type == OFType.PACKET_OUT) {
+            queuedPacketOuts++;
+        }
+        return future;
+    }
+
+    /**
+     * Writes queued messages as long as the channel is writable.
+     */
+    public synchronized void drain() {
+        while (!queue.isEmpty() && ctx.getChannel().isWritable()) {
+            Entry entry = queue.removeFirst();
+            if (entry.type == OFType.PACKET_OUT) {
+                queuedPacketOuts--;
+            }
+            Channels.write(ctx, entry.future, entry.message);
+        }
+    }
+
+    /**
+     * Fails all queued messages, e.g. when the channel is closed.
+     */
+    public synchronized void clear() {
+        for (Entry entry: queue) {
+            entry.future.setFailure(new IOException("Channel closed before the message was written"));
+        }
+        queue.clear();
+        queuedPacketOuts = 0;
+    }
+
+    private void dropOldestPacketOut() {
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.type == OFType.PACKET_OUT) {
+                it.remove();
+                queuedPacketOuts--;
+                drop(entry.future);
+                return;
+            }
+        }
+    }
+
+    private ChannelFuture drop(ChannelFuture future) {
+        droppedMessages.incrementAndGet();
+        future.setFailure(new IOException("Outbound queue overflow"));
+        return future;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    public long droppedMessages() {
+        return droppedMessages.get();
+    }
+}
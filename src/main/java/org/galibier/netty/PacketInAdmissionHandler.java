@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.galibier.core.Controller;
+import org.galibier.core.PacketInLimiter;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.openflow.protocol.OFFeaturesReply;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drops PACKET_IN messages which the PacketInLimiter of the switch does not admit, before they
+ * reach OpenFlowControllerHandler. The limiter is looked up by the datapath ID in the
+ * FEATURES_REPLY, so PACKET_IN messages received before it are always passed.
+ */
+public class PacketInAdmissionHandler extends SimpleChannelUpstreamHandler {
+    private final Controller controller;
+    private PacketInLimiter limiter;
+
+    public PacketInAdmissionHandler(Controller controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object message = e.getMessage();
+        if (message instanceof OFMessage) {
+            if (admit((OFMessage)message)) {
+                ctx.sendUpstream(e);
+            }
+        } else if (message instanceof List) {
+            List<?> messages = (List<?>)message;
+            List<Object> admitted = null;
+            for (int i = 0; i < messages.size(); i++) {
+                Object in = messages.get(i);
+                boolean admit = !(in instanceof OFMessage) || admit((OFMessage)in);
+                if (!admit && admitted == null) {
+                    //  copy only when the first message is dropped
+                    admitted = new ArrayList<Object>(messages.subList(0, i));
+                } else if (admit && admitted != null) {
+                    admitted.add(in);
+                }
+            }
+
+            if (admitted == null) {
+                ctx.sendUpstream(e);
+            } else if (!admitted.isEmpty()) {
+                Channels.fireMessageReceived(ctx, admitted, e.getRemoteAddress());
+            }
+        } else {
+            ctx.sendUpstream(e);
+        }
+    }
+
+    private boolean admit(OFMessage in) {
+        if (in.getType() == OFType.FEATURES_REPLY) {
+            limiter = controller.packetInLimiter(((OFFeaturesReply)in).getDatapathId());
+            return true;
+        }
+        if (in.getType() != OFType.PACKET_IN || limiter == null) {
+            return true;
+        }
+        return limiter.admit();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import com.google.common.base.Preconditions;
+import org.galibier.core.OFMessageFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Futures of the requests waiting for their replies, keyed by XID. Keys are stored as primitive
+ * ints in an open addressing table, so registering and completing a request allocates nothing
+ * unless the table grows. Each request has a deadline, and {@link #expire(long)} removes the
+ * requests whose deadline has passed.
+ */
+public class PendingRequestTable {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    //  a slot is empty if its value is null
+    private int[] keys;
+    private OFMessageFuture[] values;
+    private long[] deadlines;
+    private int mask;
+    private int size;
+    private long expiredRequests;
+
+    public PendingRequestTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates the table.
+     * @param capacity the initial number of slots, rounded up to a power of two
+     */
+    public PendingRequestTable(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Capacity (%s) must be positive", capacity);
+
+        allocate(Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1);
+    }
+
+    private void allocate(int slots) {
+        keys = new int[slots];
+        values = new OFMessageFuture[slots];
+        deadlines = new long[slots];
+        mask = slots - 1;
+    }
+
+    private int home(int xid) {
+        //  XIDs are sequential, so spread them over the slots
+        return (xid * 0x9E3779B9) & mask;
+    }
+
+    /**
+     * Registers the future of a request. A future already registered with the XID is replaced.
+     * @param xid the XID of the request
+     * @param future the future completed by the reply
+     * @param deadlineNanos the time by System.nanoTime() after which the request expires
+     */
+    public synchronized void put(int xid, OFMessageFuture future, long deadlineNanos) {
+        Preconditions.checkNotNull(future);
+
+        if ((size + 1) * 2 > values.length) {
+            grow();
+        }
+        int slot = home(xid);
+        while (values[slot] != null && keys[slot] != xid) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == null) {
+            size++;
+        }
+        keys[slot] = xid;
+        values[slot] = future;
+        deadlines[slot] = deadlineNanos;
+    }
+
+    /**
+     * Removes the future of the request.
+     * @param xid the XID of the request
+     * @return the future, or null if no request with the XID is pending
+     */
+    public synchronized OFMessageFuture remove(int xid) {
+        int slot = home(xid);
+        while (values[slot] != null) {
+            if (keys[slot] == xid) {
+                OFMessageFuture future = values[slot];
+                removeAt(slot);
+                return future;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Extends the deadline of a request, e.g. when a part of a multipart reply arrives.
+     * @param xid the XID of the request
+     * @param deadlineNanos the new deadline by System.nanoTime()
+     * @return the future of the request, or null if no request with the XID is pending
+     */
+    public synchronized OFMessageFuture refresh(int xid, long deadlineNanos) {
+        int slot = home(xid);
+        while (values[slot] != null) {
+            if (keys[slot] == xid) {
+                deadlines[slot] = deadlineNanos;
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the requests whose deadline has passed. The caller completes the returned futures.
+     * @param nowNanos the current time by System.nanoTime()
+     * @return the futures of the expired requests
+     */
+    public synchronized List<OFMessageFuture> expire(long nowNanos) {
+        List<OFMessageFuture> expired = null;
+        int slot = 0;
+        while (slot < values.length) {
+            if (values[slot] != null && nowNanos - deadlines[slot] >= 0) {
+                if (expired == null) {
+                    expired = new ArrayList<OFMessageFuture>();
+                }
+                expired.add(values[slot]);
+                removeAt(slot);
+                //  another entry may have been shifted into the slot
+                continue;
+            }
+            slot++;
+        }
+
+        if (expired == null) {
+            return Collections.emptyList();
+        }
+        expiredRequests += expired.size();
+        return expired;
+    }
+
+    /**
+     * Removes all requests.
+     * @return the futures of the removed requests
+     */
+    public synchronized List<OFMessageFuture> clear() {
+        List<OFMessageFuture> removed = new ArrayList<OFMessageFuture>(size);
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                removed.add(values[slot]);
+                values[slot] = null;
+            }
+        }
+        size = 0;
+        return removed;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of requests removed by {@link #expire(long)}.
+     * @return the number of expired requests
+     */
+    public synchronized long expiredRequests() {
+        return expiredRequests;
+    }
+
+    private void removeAt(int slot) {
+        //  shift the following entries of the cluster back so that no lookup stops at the hole
+        int gap = slot;
+        int current = slot;
+        while (true) {
+            current = (current + 1) & mask;
+            if (values[current] == null) {
+                break;
+            }
+            int home = home(keys[current]);
+            boolean movable = current > gap ? (home <= gap || home > current) : (home <= gap && home > current);
+            if (movable) {
+                keys[gap] = keys[current];
+                values[gap] = values[current];
+                deadlines[gap] = deadlines[current];
+                gap = current;
+            }
+        }
+        values[gap] = null;
+        size--;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        OFMessageFuture[] oldValues = values;
+        long[] oldDeadlines = deadlines;
+        allocate(oldValues.length * 2);
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], oldValues[i], oldDeadlines[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks on an executor so that tasks with the same key run one at a time in the order
+ * they are submitted, while tasks with different keys run concurrently. Unlike {@link ShardedExecutor},
+ * a blocking task delays only the tasks of its own key, which suits an executor creating a thread
+ * per task, such as a virtual thread executor. The queue of a key is dropped when it runs out of tasks,
+ * so keys which are no longer used, e.g. datapath IDs of disconnected switches, do not accumulate.
+ */
+public class KeyedSerialExecutor {
+    private static final Logger log = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+    //  tasks run for a key before the thread is given back to the executor
+    private static final int MAX_TASKS_PER_TURN = 64;
+
+    private final Executor executor;
+    private final ConcurrentMap<Long, TaskQueue> queues = new ConcurrentHashMap<Long, TaskQueue>();
+
+    /**
+     * Creates the executor.
+     * @param executor the executor running the tasks, which is not shut down by this class
+     */
+    public KeyedSerialExecutor(Executor executor) {
+        Preconditions.checkNotNull(executor);
+
+        this.executor = executor;
+    }
+
+    /**
+     * Executes the task after the tasks submitted before with the same key.
+     * @param key the key, e.g. a datapath ID
+     * @param task the task
+     */
+    public void execute(long key, Runnable task) {
+        while (true) {
+            TaskQueue queue = queues.get(key);
+            if (queue == null) {
+                TaskQueue created = new TaskQueue(key);
+                queue = queues.putIfAbsent(key, created);
+                if (queue == null) {
+                    queue = created;
+                }
+            }
+            if (queue.add(task)) {
+                return;
+            }
+            //  the queue was dropped after running its last task, and a new one takes over
+        }
+    }
+
+    private class TaskQueue implements Runnable {
+        private final long key;
+        //  guarded by this
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+        private boolean scheduled;
+        private boolean dropped;
+
+        private TaskQueue(long key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns false if the queue has been dropped and does not accept the task.
+         */
+        private boolean add(Runnable task) {
+            synchronized (this) {
+                if (dropped) {
+                    return false;
+                }
+                tasks.add(task);
+                if (scheduled) {
+                    return true;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                boolean pending;
+                synchronized (this) {
+                    tasks.remove(task);
+                    pending = !tasks.isEmpty();
+                    scheduled = pending;
+                }
+                if (pending) {
+                    //  tasks accepted by other threads meanwhile must not be stranded
+                    run();
+                }
+                throw e;
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+                    Runnable task;
+                    synchronized (this) {
+                        task = tasks.poll();
+                        if (task == null) {
+                            //  every task of the key has completed, so a new queue keeps the order
+                            scheduled = false;
+                            dropped = true;
+                            queues.remove(key, this);
+                            return;
+                        }
+                    }
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        //  keep the queue scheduled for the following tasks of the key
+                        log.warn("Exception occurred in a task", e);
+                    }
+                }
+
+                try {
+                    //  let the other keys run
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    //  keep running the tasks on this thread rather than stranding them
+                }
+            }
+        }
+    }
+}
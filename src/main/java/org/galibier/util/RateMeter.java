@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate of events as an exponentially weighted moving average, in the way of the load
+ * average of Unix. Events are counted as they occur, and the average is updated every interval
+ * when the meter is used.
+ */
+public class RateMeter {
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double alpha;
+
+    //  guarded by this
+    private long count;
+    private long uncounted;
+    private double rate;
+    private boolean initialized;
+    private long lastTickNanos;
+
+    /**
+     * Creates the meter.
+     * @param windowSeconds the time over which the average is taken, e.g. 60 for a one-minute rate
+     */
+    public RateMeter(int windowSeconds) {
+        this.alpha = 1 - Math.exp(-1.0 / windowSeconds);
+        this.lastTickNanos = System.nanoTime();
+    }
+
+    /**
+     * Records an event.
+     */
+    public synchronized void mark() {
+        tickIfNecessary();
+        count++;
+        uncounted++;
+    }
+
+    /**
+     * Returns the average rate.
+     * @return the number of events per second
+     */
+    public synchronized double rate() {
+        tickIfNecessary();
+        return rate;
+    }
+
+    /**
+     * Returns the number of events recorded so far.
+     * @return the number of events
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    private void tickIfNecessary() {
+        long ticks = (System.nanoTime() - lastTickNanos) / INTERVAL_NANOS;
+        if (ticks <= 0) {
+            return;
+        }
+
+        //  the events are counted in the first interval, and the rest of the intervals were empty
+        if (initialized) {
+            rate += alpha * (uncounted - rate);
+        } else {
+            rate = uncounted;
+            initialized = true;
+        }
+        rate *= Math.pow(1 - alpha, ticks - 1);
+        uncounted = 0;
+        lastTickNanos += ticks * INTERVAL_NANOS;
+    }
+}
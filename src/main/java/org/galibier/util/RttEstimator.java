@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Estimates the round trip time of a connection from samples, and derives a timeout from the
+ * smoothed RTT and its variation as TCP does (RFC 6298): srtt + 4 * rttvar, bounded by the minimum
+ * and the maximum. Until the first sample, the timeout is the maximum.
+ */
+public class RttEstimator {
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    private static final int VARIATION_FACTOR = 4;
+
+    private final long minTimeoutNanos;
+    private final long maxTimeoutNanos;
+
+    //  guarded by this
+    private double smoothedRtt;
+    private double rttVariation;
+    private boolean sampled;
+
+    /**
+     * Creates the estimator.
+     * @param minTimeoutNanos the lower bound of the timeout
+     * @param maxTimeoutNanos the upper bound of the timeout, also used before the first sample
+     */
+    public RttEstimator(long minTimeoutNanos, long maxTimeoutNanos) {
+        Preconditions.checkArgument(minTimeoutNanos > 0, "Minimum timeout (%s) must be positive", minTimeoutNanos);
+        Preconditions.checkArgument(minTimeoutNanos <= maxTimeoutNanos,
+                "Minimum timeout (%s) must not exceed maximum timeout (%s)", minTimeoutNanos, maxTimeoutNanos);
+
+        this.minTimeoutNanos = minTimeoutNanos;
+        this.maxTimeoutNanos = maxTimeoutNanos;
+    }
+
+    /**
+     * Adds a sample.
+     * @param rttNanos the measured round trip time
+     */
+    public synchronized void update(long rttNanos) {
+        Preconditions.checkArgument(rttNanos >= 0, "RTT (%s) must not be negative", rttNanos);
+
+        if (!sampled) {
+            smoothedRtt = rttNanos;
+            rttVariation = rttNanos / 2.0;
+            sampled = true;
+        } else {
+            rttVariation = (1 - BETA) * rttVariation + BETA * Math.abs(smoothedRtt - rttNanos);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rttNanos;
+        }
+    }
+
+    public synchronized long timeoutNanos() {
+        if (!sampled) {
+            return maxTimeoutNanos;
+        }
+        long timeout = (long)(smoothedRtt + VARIATION_FACTOR * rttVariation);
+        return Math.min(maxTimeoutNanos, Math.max(minTimeoutNanos, timeout));
+    }
+
+    public synchronized long smoothedRttNanos() {
+        return (long)smoothedRtt;
+    }
+
+    public synchronized long rttVariationNanos() {
+        return (long)rttVariation;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed set of single-threaded executors. Tasks with the same key always run on the same
+ * shard, so they are executed in the order they are submitted. The queue of each shard is bounded,
+ * and submitting a task to a full shard blocks the caller until the shard catches up, so that
+ * a slow task slows down the producer, e.g. the reads from a switch, instead of filling the heap.
+ */
+public class ShardedExecutor {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final RejectedExecutionHandler BLOCK_CALLER = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Shard is shut down");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the shard", e);
+            }
+        }
+    };
+
+    private final ThreadPoolExecutor[] shards;
+
+    /**
+     * Creates the executors whose queues hold {@link #DEFAULT_QUEUE_CAPACITY} tasks.
+     * @param shards the number of shards, each of which has a dedicated thread
+     * @param nameFormat the format of the thread names, e.g. "dispatch-%d"
+     */
+    public ShardedExecutor(int shards, String nameFormat) {
+        this(shards, DEFAULT_QUEUE_CAPACITY, nameFormat);
+    }
+
+    /**
+     * Creates the executors.
+     * @param shards the number of shards, each of which has a dedicated thread
+     * @param queueCapacity the number of tasks waiting in each shard before the caller blocks
+     * @param nameFormat the format of the thread names, e.g. "dispatch-%d"
+     */
+    public ShardedExecutor(int shards, int queueCapacity, String nameFormat) {
+        Preconditions.checkArgument(shards > 0, "Shards (%s) must be positive", shards);
+        Preconditions.checkArgument(queueCapacity > 0, "Queue capacity (%s) must be positive", queueCapacity);
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(nameFormat).build();
+        this.shards = new ThreadPoolExecutor[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, BLOCK_CALLER);
+            //  tryExecute() hands tasks to the queue directly, so the thread must be waiting on it
+            this.shards[i].prestartAllCoreThreads();
+        }
+    }
+
+    /**
+     * Executes the task on the shard of the key.
+     * @param key the key, e.g. a datapath ID
+     * @param task the task
+     */
+    public void execute(long key, Runnable task) {
+        shards[shardOf(key)].execute(task);
+    }
+
+    /**
+     * Executes the task on the shard of the key unless the shard is full or shut down. It never blocks.
+     * @param key the key, e.g. a datapath ID
+     * @param task the task
+     * @return false if the task was not accepted
+     */
+    public boolean tryExecute(long key, Runnable task) {
+        ThreadPoolExecutor shard = shards[shardOf(key)];
+        return !shard.isShutdown() && shard.getQueue().offer(task);
+    }
+
+    public int shardOf(long key) {
+        //  spread the bits of both halves since datapath IDs often differ only in the low bits
+        int hash = (int)(key ^ (key >>> 32));
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % shards.length;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Stops accepting tasks and waits for the submitted tasks to complete.
+     * @param timeout the maximum time to wait for each shard
+     * @param unit the unit of the timeout
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        for (ExecutorService shard: shards) {
+            shard.shutdown();
+        }
+        for (ExecutorService shard: shards) {
+            try {
+                shard.awaitTermination(timeout, unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Token bucket refilled continuously at a fixed rate up to the burst size.
+ */
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Creates a full bucket.
+     * @param ratePerSecond the number of tokens added per second
+     * @param burst the maximum number of tokens in the bucket
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        this(ratePerSecond, burst, System.nanoTime());
+    }
+
+    TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+        Preconditions.checkArgument(ratePerSecond > 0, "Rate (%s) must be positive", ratePerSecond);
+        Preconditions.checkArgument(burst > 0, "Burst (%s) must be positive", burst);
+
+        this.ratePerNano = ratePerSecond / NANOS_PER_SECOND;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Takes a token if available.
+     * @return true if a token was taken
+     */
+    public boolean tryConsume() {
+        return tryConsume(System.nanoTime());
+    }
+
+    synchronized boolean tryConsume(long nowNanos) {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + elapsed * ratePerNano);
+            lastRefillNanos = nowNanos;
+        }
+
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    public double ratePerSecond() {
+        return ratePerNano * NANOS_PER_SECOND;
+    }
+
+    public int burst() {
+        return (int)burst;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a consumer of a ring buffer waits for the next entries to be published.
+ */
+public enum WaitStrategy {
+    /**
+     * Spins without releasing the CPU. It gives the lowest latency, but occupies a core per consumer.
+     */
+    BUSY_SPIN {
+        @Override
+        public void idle(int attempts) {
+        }
+    },
+
+    /**
+     * Spins for a while and then yields the CPU to other threads.
+     */
+    YIELD {
+        @Override
+        public void idle(int attempts) {
+            if (attempts > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    },
+
+    /**
+     * Spins, yields and then parks the thread for a short time. It uses little CPU while idle
+     * at the cost of latency for the first entry after an idle period.
+     */
+    PARK {
+        @Override
+        public void idle(int attempts) {
+            if (attempts > SPIN_TRIES + YIELD_TRIES) {
+                LockSupport.parkNanos(PARK_NANOS);
+            } else if (attempts > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50 * 1000;
+
+    /**
+     * Waits once.
+     * @param attempts the number of times idle() has been called since the last entry was consumed
+     */
+    public abstract void idle(int attempts);
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed wheel timer shared by the connections for their periodic tasks. Scheduling and cancelling
+ * a task take constant time regardless of the number of tasks, at the cost of firing each task up to
+ * a tick late. Periodic tasks are jittered so that the tasks of switches connected at the same time
+ * do not keep firing together. The timer records how late the tasks fire.
+ */
+public class WheelTimer {
+    private static final Logger log = LoggerFactory.getLogger(WheelTimer.class);
+
+    private final HashedWheelTimer wheel;
+    private final Random random = new Random();
+    private final double jitter;
+
+    private final AtomicLong firedTasks = new AtomicLong();
+    private final AtomicLong totalLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * Creates the timer.
+     * @param tickMillis the resolution of the timer in milliseconds
+     * @param ticksPerWheel the number of slots of the wheel
+     * @param jitter the fraction of the period by which each run of a periodic task is randomly shifted,
+     *               between 0 and 1
+     */
+    public WheelTimer(long tickMillis, int ticksPerWheel, double jitter) {
+        Preconditions.checkArgument(tickMillis > 0, "Tick (%s) must be positive", tickMillis);
+        Preconditions.checkArgument(jitter >= 0 && jitter < 1, "Jitter (%s) must be in [0, 1)", jitter);
+
+        this.wheel = new HashedWheelTimer(new ThreadFactoryBuilder().setNameFormat("wheel-timer-%d").build(),
+                tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel);
+        this.jitter = jitter;
+    }
+
+    /**
+     * Runs the task once after the delay.
+     * @param task the task
+     * @param delay the delay
+     * @param unit the unit of the delay
+     * @return the handle cancelling the task
+     */
+    public Timeout schedule(final Runnable task, long delay, TimeUnit unit) {
+        final long scheduledNanos = System.nanoTime() + unit.toNanos(delay);
+        return wheel.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                fire(task, scheduledNanos);
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Runs the task periodically until it is cancelled. The first run is randomly placed within
+     * the first period after the initial delay, and each following run is shifted by the jitter.
+     * @param task the task
+     * @param initialDelay the delay before the first period
+     * @param period the period
+     * @param unit the unit of the delay and the period
+     * @return the handle cancelling the task
+     */
+    public PeriodicTask schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        Preconditions.checkArgument(period > 0, "Period (%s) must be positive", period);
+
+        long periodNanos = unit.toNanos(period);
+        PeriodicTask periodic = new PeriodicTask(task, periodNanos);
+        periodic.scheduleAfter(unit.toNanos(initialDelay) + (long)(nextDouble() * periodNanos));
+        return periodic;
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private void fire(Runnable task, long scheduledNanos) {
+        long lag = Math.max(0, System.nanoTime() - scheduledNanos);
+        firedTasks.incrementAndGet();
+        totalLagNanos.addAndGet(lag);
+        long max = maxLagNanos.get();
+        while (lag > max && !maxLagNanos.compareAndSet(max, lag)) {
+            max = maxLagNanos.get();
+        }
+
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            //  keep the timer thread for the other tasks
+            log.warn("Exception occurred in a timer task", e);
+        }
+    }
+
+    /**
+     * Returns the number of tasks run so far.
+     * @return the number of fired tasks
+     */
+    public long firedTasks() {
+        return firedTasks.get();
+    }
+
+    /**
+     * Returns how late the tasks fired on average.
+     * @return the average lag in nanoseconds
+     */
+    public long averageLagNanos() {
+        long fired = firedTasks.get();
+        return fired == 0 ? 0 : totalLagNanos.get() / fired;
+    }
+
+    /**
+     * Returns the largest lag of the tasks run so far.
+     * @return the maximum lag in nanoseconds
+     */
+    public long maxLagNanos() {
+        return maxLagNanos.get();
+    }
+
+    /**
+     * Stops the timer. Pending tasks are not run.
+     */
+    public void stop() {
+        wheel.stop();
+    }
+
+    /**
+     * Handle of a task run periodically by the timer.
+     */
+    public class PeriodicTask {
+        private final Runnable task;
+        private final long periodNanos;
+        private volatile Timeout timeout;
+        private volatile boolean cancelled;
+
+        private PeriodicTask(Runnable task, long periodNanos) {
+            this.task = task;
+            this.periodNanos = periodNanos;
+        }
+
+        private void scheduleAfter(final long delayNanos) {
+            final long scheduledNanos = System.nanoTime() + delayNanos;
+            timeout = wheel.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) throws Exception {
+                    if (cancelled) {
+                        return;
+                    }
+                    fire(task, scheduledNanos);
+                    long shift = (long)((nextDouble() * 2 - 1) * jitter * periodNanos);
+                    if (!cancelled) {
+                        scheduleAfter(periodNanos + shift);
+                    }
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Stops running the task.
+         */
+        public void cancel() {
+            cancelled = true;
+            Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFType;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TestOFMessageFuture {
+    private final ChannelFuture write = new DefaultChannelFuture(null, false);
+
+    @Test
+    public void replyCompletesRequest() {
+        OFMessageFuture future = new OFMessageFuture(OFType.BARRIER_REQUEST, 1, write);
+        final AtomicBoolean notified = new AtomicBoolean();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                notified.set(true);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        write.setSuccess();
+        assertFalse(future.isDone());
+
+        OFBarrierReply reply = new OFBarrierReply();
+        reply.setXid(1);
+        future.setReply(reply);
+        assertTrue(notified.get());
+        assertSame(reply, future.getReply());
+        assertNull(future.getCause());
+    }
+
+    @Test
+    public void writeCompletesOtherMessages() {
+        OFMessageFuture future = new OFMessageFuture(OFType.FLOW_MOD, 1, write);
+        write.setSuccess();
+        assertTrue(future.isDone());
+        assertNull(future.getReply());
+    }
+
+    @Test
+    public void failedWriteFailsRequest() {
+        OFMessageFuture future = new OFMessageFuture(OFType.BARRIER_REQUEST, 1, write);
+        IOException cause = new IOException();
+        write.setFailure(cause);
+        assertSame(cause, future.getCause());
+        assertNull(future.getReply());
+    }
+
+    @Test
+    public void timedOutRequest() {
+        OFMessageFuture future = new OFMessageFuture(OFType.BARRIER_REQUEST, 1, write);
+        write.setSuccess();
+        assertNull(future.getReply(10));
+        assertFalse(future.isDone());
+
+        future.setTimedOut();
+        assertTrue(future.isTimedOut());
+        assertTrue(future.getCause() instanceof TimeoutException);
+        assertNull(future.getReply());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.junit.Test;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.statistics.OFPortStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestOFStatisticsFuture {
+    private final ChannelFuture write = new DefaultChannelFuture(null, false);
+
+    private static OFStatisticsReply part(boolean more, OFStatistics... statistics) {
+        OFStatisticsReply reply = new OFStatisticsReply();
+        reply.setXid(1);
+        reply.setFlags(more ? OFStatisticsFuture.REPLY_MORE : 0);
+        reply.setStatistics(new ArrayList<OFStatistics>(Arrays.asList(statistics)));
+        return reply;
+    }
+
+    @Test
+    public void partsAreAggregated() {
+        OFStatisticsFuture future = new OFStatisticsFuture(1, write, null);
+        write.setSuccess();
+        OFStatistics a = new OFPortStatisticsRequest();
+        OFStatistics b = new OFPortStatisticsRequest();
+        OFStatistics c = new OFPortStatisticsRequest();
+
+        assertFalse(future.addPart(part(true, a, b)));
+        assertFalse(future.isDone());
+        assertTrue(future.addPart(part(false, c)));
+
+        OFStatisticsReply reply = (OFStatisticsReply)future.getReply();
+        assertEquals(Arrays.asList(a, b, c), reply.getStatistics());
+        assertEquals(0, reply.getFlags());
+        assertEquals(2, future.parts());
+    }
+
+    @Test
+    public void partsAreStreamed() {
+        final List<OFStatisticsReply> received = new ArrayList<OFStatisticsReply>();
+        OFStatisticsFuture future = new OFStatisticsFuture(1, write, new StatisticsCallback() {
+            @Override
+            public void handleStatisticsReply(OFStatisticsReply part) {
+                received.add(part);
+            }
+        });
+        write.setSuccess();
+        OFStatisticsReply first = part(true, new OFPortStatisticsRequest());
+        OFStatisticsReply last = part(false, new OFPortStatisticsRequest());
+
+        future.addPart(first);
+        assertFalse(future.isDone());
+        future.addPart(last);
+
+        assertEquals(Arrays.asList(first, last), received);
+        assertSame(last, future.getReply());
+        assertEquals(1, first.getStatistics().size());
+    }
+
+    @Test
+    public void failingCallbackFailsTheFuture() {
+        final IllegalStateException cause = new IllegalStateException();
+        OFStatisticsFuture future = new OFStatisticsFuture(1, write, new StatisticsCallback() {
+            @Override
+            public void handleStatisticsReply(OFStatisticsReply part) {
+                throw cause;
+            }
+        });
+        write.setSuccess();
+
+        assertTrue(future.addPart(part(false)));
+        assertSame(cause, future.getCause());
+    }
+}
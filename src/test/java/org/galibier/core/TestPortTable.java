@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.junit.Test;
+import org.openflow.protocol.OFPhysicalPort;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.openflow.protocol.OFPhysicalPort.OFPortConfig;
+
+public class TestPortTable {
+    private static OFPhysicalPort port(int number, int config) {
+        OFPhysicalPort port = new OFPhysicalPort();
+        port.setPortNumber((short)number);
+        port.setConfig(config);
+        return port;
+    }
+
+    @Test
+    public void portsAreKeptInOrder() {
+        PortTable table = PortTable.of(Arrays.asList(port(3, 0), port(1, 0), port(2, 0)));
+        assertEquals(3, table.size());
+        List<OFPhysicalPort> enabled = table.enabledPorts();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, enabled.get(i).getPortNumber());
+        }
+        assertSame(enabled, table.enabledPorts());
+    }
+
+    @Test
+    public void portNumbersAreUnsigned() {
+        short local = (short)0xfffe;
+        PortTable table = PortTable.of(Arrays.asList(port(local, 0), port(2, 0), port(0x8000, 0), port(1, 0)));
+        List<OFPhysicalPort> enabled = table.enabledPorts();
+        assertEquals(1, enabled.get(0).getPortNumber());
+        assertEquals(2, enabled.get(1).getPortNumber());
+        assertEquals((short)0x8000, enabled.get(2).getPortNumber());
+        assertEquals(local, enabled.get(3).getPortNumber());
+        assertNotNull(table.get(local));
+        assertEquals(3, table.without(local).size());
+    }
+
+    @Test
+    public void modificationReplacesThePort() {
+        PortTable table = PortTable.of(Arrays.asList(port(1, 0), port(2, 0)));
+        OFPhysicalPort down = port(2, OFPortConfig.OFPPC_PORT_DOWN.getValue());
+        PortTable modified = table.with(down);
+
+        assertEquals(2, modified.size());
+        assertSame(down, modified.get((short)2));
+        assertEquals(1, modified.enabledPorts().size());
+        assertEquals(2, table.enabledPorts().size());
+    }
+
+    @Test
+    public void deletionRemovesThePort() {
+        PortTable table = PortTable.of(Arrays.asList(port(1, 0), port(2, 0), port(3, 0)));
+        PortTable deleted = table.without((short)2);
+
+        assertEquals(2, deleted.size());
+        assertNull(deleted.get((short)2));
+        assertNotNull(deleted.get((short)3));
+        assertSame(deleted, deleted.without((short)2));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void enabledPortsAreUnmodifiable() {
+        PortTable.of(Arrays.asList(port(1, 0))).enabledPorts().clear();
+    }
+}
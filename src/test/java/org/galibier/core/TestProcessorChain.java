@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.core;
+
+import org.junit.Test;
+import org.openflow.protocol.OFPacketIn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestProcessorChain {
+    private final List<String> invoked = new ArrayList<String>();
+
+    private ProcessorChain.Node node(final String name, List<String> after, List<String> before,
+                                     final Disposition disposition) {
+        PacketInProcessor processor = new PacketInProcessor() {
+            @Override
+            public Disposition processPacketIn(Switch sw, OFPacketIn msg) {
+                invoked.add(name);
+                return disposition;
+            }
+        };
+        return new ProcessorChain.Node(name, processor, after, before);
+    }
+
+    private ProcessorChain.Node node(String name, List<String> after, List<String> before) {
+        return node(name, after, before, Disposition.CONTINUE);
+    }
+
+    private static List<String> none() {
+        return Collections.emptyList();
+    }
+
+    @Test
+    public void registrationOrderWithoutConstraints() {
+        ProcessorChain chain = ProcessorChain.sort(Arrays.asList(
+                node("a", none(), none()), node("b", none(), none()), node("c", none(), none())));
+        assertEquals(Disposition.CONTINUE, chain.process(null, (OFPacketIn)null));
+        assertEquals(Arrays.asList("a", "b", "c"), invoked);
+    }
+
+    @Test
+    public void constraintsAreSatisfied() {
+        ProcessorChain chain = ProcessorChain.sort(Arrays.asList(
+                node("forwarding", Arrays.asList("topology"), none()),
+                node("topology", none(), none()),
+                node("firewall", none(), Arrays.asList("forwarding", "topology")),
+                node("unknown", Arrays.asList("missing"), none())));
+        chain.process(null, (OFPacketIn)null);
+        assertEquals(Arrays.asList("firewall", "topology", "forwarding", "unknown"), invoked);
+    }
+
+    @Test
+    public void stopSkipsFollowingProcessors() {
+        ProcessorChain chain = ProcessorChain.sort(Arrays.asList(
+                node("a", none(), none()), node("b", none(), none(), Disposition.STOP), node("c", none(), none())));
+        assertEquals(Disposition.STOP, chain.process(null, (OFPacketIn)null));
+        assertEquals(Arrays.asList("a", "b"), invoked);
+    }
+
+    @Test
+    public void failingProcessorContinues() {
+        PacketInProcessor failing = new PacketInProcessor() {
+            @Override
+            public Disposition processPacketIn(Switch sw, OFPacketIn msg) {
+                throw new IllegalStateException("failing processor");
+            }
+        };
+        ProcessorChain chain = ProcessorChain.sort(Arrays.asList(
+                new ProcessorChain.Node("failing", failing, none(), none()), node("b", none(), none())));
+        assertEquals(Disposition.CONTINUE, chain.process(null, (OFPacketIn)null));
+        assertEquals(Arrays.asList("b"), invoked);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cyclicConstraints() {
+        ProcessorChain.sort(Arrays.asList(
+                node("a", Arrays.asList("b"), none()), node("b", Arrays.asList("a"), none())));
+    }
+}
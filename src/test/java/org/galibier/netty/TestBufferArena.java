@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TestBufferArena {
+    @Test
+    public void acquireRoundsUpToSizeClass() {
+        BufferArena arena = new BufferArena(false);
+        ByteBuffer small = arena.acquire(8);
+        assertEquals(64, small.capacity());
+        assertEquals(8, small.limit());
+        assertEquals(0, small.position());
+
+        ByteBuffer large = arena.acquire(65);
+        assertEquals(128, large.capacity());
+
+        ByteBuffer max = arena.acquire(65535);
+        assertEquals(65536, max.capacity());
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        BufferArena arena = new BufferArena(true);
+        ByteBuffer first = arena.acquire(100);
+        assertTrue(first.isDirect());
+        arena.release(first);
+
+        ByteBuffer second = arena.acquire(120);
+        assertSame(first, second);
+        assertEquals(120, second.limit());
+        assertEquals(2, arena.acquisitionCount());
+        assertEquals(1, arena.allocationCount());
+        assertEquals(128, arena.allocatedBytes());
+    }
+
+    @Test
+    public void fullSizeClassDiscardsBuffers() {
+        BufferArena arena = new BufferArena(false, 128);
+        ByteBuffer first = arena.acquire(64);
+        ByteBuffer second = arena.acquire(64);
+        ByteBuffer third = arena.acquire(64);
+        arena.release(first);
+        arena.release(second);
+        arena.release(third);
+
+        assertEquals(3, arena.releaseCount());
+        assertEquals(1, arena.discardCount());
+    }
+
+    @Test
+    public void foreignBufferIsNotPooled() {
+        BufferArena arena = new BufferArena(false);
+        arena.release(ByteBuffer.allocate(100));
+        arena.release(ByteBuffer.allocateDirect(64));
+
+        assertEquals(2, arena.discardCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLongLength() {
+        new BufferArena(false).acquire(65536);
+    }
+}
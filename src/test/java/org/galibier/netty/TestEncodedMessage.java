@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TestEncodedMessage {
+    private static final int PAYLOAD = 0x01020304;
+
+    private static OFMessage message() {
+        OFMessage message = new OFMessage() {
+            @Override
+            public void writeTo(ByteBuffer data) {
+                super.writeTo(data);
+                data.putInt(PAYLOAD);
+            }
+        };
+        message.setType(OFType.FLOW_MOD);
+        message.setLengthU(OFMessage.MINIMUM_LENGTH + 4);
+        message.setXid(99);
+        return message;
+    }
+
+    @Test
+    public void eachWriteGetsItsOwnXid() {
+        EncodedMessage encoded = EncodedMessage.of(message());
+        ChannelBuffer first = encoded.encode(1);
+        ChannelBuffer second = encoded.encode(2);
+
+        assertEquals(12, first.readableBytes());
+        assertEquals(1, first.getInt(4));
+        assertEquals(2, second.getInt(4));
+        assertEquals(PAYLOAD, first.getInt(8));
+        assertEquals(PAYLOAD, second.getInt(8));
+        assertEquals(12, first.getShort(2));
+    }
+
+    @Test
+    public void readingAWriteDoesNotConsumeTheBody() {
+        EncodedMessage encoded = EncodedMessage.of(message());
+        ChannelBuffer first = encoded.encode(1);
+        first.skipBytes(first.readableBytes());
+
+        assertEquals(encoded.length(), encoded.encode(2).readableBytes());
+    }
+
+    @Test
+    public void headerOnlyMessage() {
+        OFMessage barrier = new OFMessage();
+        barrier.setType(OFType.BARRIER_REQUEST);
+        barrier.setLengthU(OFMessage.MINIMUM_LENGTH);
+        ChannelBuffer buffer = EncodedMessage.of(barrier).encode(5);
+
+        assertEquals(OFMessage.MINIMUM_LENGTH, buffer.readableBytes());
+        assertEquals(5, buffer.getInt(4));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.jboss.netty.channel.Channel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class TestHandshakeLimiter {
+    //  the tasks handed to the starter, run by the test
+    private final Queue<Runnable> startTasks = new LinkedList<Runnable>();
+    private final List<String> started = new ArrayList<String>();
+    private HandshakeLimiter limiter;
+
+    private static class ChannelState implements InvocationHandler {
+        boolean open = true;
+        boolean readable = true;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("isOpen")) {
+                return open;
+            } else if (name.equals("isReadable")) {
+                return readable;
+            } else if (name.equals("setReadable")) {
+                readable = (Boolean)args[0];
+            } else if (name.equals("close")) {
+                open = false;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return null;
+        }
+    }
+
+    private static Channel channel(ChannelState state) {
+        return (Channel)Proxy.newProxyInstance(Channel.class.getClassLoader(),
+                new Class<?>[]{Channel.class}, state);
+    }
+
+    private Runnable start(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.add(name);
+            }
+        };
+    }
+
+    private void runStartTasks() {
+        while (!startTasks.isEmpty()) {
+            startTasks.poll().run();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        limiter = new HandshakeLimiter(1, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                startTasks.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void admitsInTheOrderOfAcceptance() {
+        Channel first = channel(new ChannelState());
+        ChannelState secondState = new ChannelState();
+        Channel second = channel(secondState);
+        Channel third = channel(new ChannelState());
+
+        limiter.admit(first, start("first"));
+        limiter.admit(second, start("second"));
+        limiter.admit(third, start("third"));
+        assertEquals(1, limiter.handshakesInProgress());
+        assertEquals(2, limiter.waitingConnections());
+        assertFalse(secondState.readable);
+
+        limiter.completed(first);
+        runStartTasks();
+        limiter.completed(second);
+        runStartTasks();
+        assertEquals(3, started.size());
+        assertEquals("first", started.get(0));
+        assertEquals("second", started.get(1));
+        assertEquals("third", started.get(2));
+        assertTrue(secondState.readable);
+    }
+
+    @Test
+    public void completionStartsTheNextWaiterOnTheStarter() {
+        Channel first = channel(new ChannelState());
+        Channel second = channel(new ChannelState());
+        limiter.admit(first, start("first"));
+        limiter.admit(second, start("second"));
+
+        limiter.completed(first);
+        //  not run on the thread which completed the handshake
+        assertEquals(1, started.size());
+        assertEquals(1, startTasks.size());
+        assertEquals(1, limiter.handshakesInProgress());
+        assertEquals(0, limiter.waitingConnections());
+
+        runStartTasks();
+        assertEquals("second", started.get(1));
+    }
+
+    @Test
+    public void closedWaitersAreNotStarted() {
+        Channel first = channel(new ChannelState());
+        Channel second = channel(new ChannelState());
+        ChannelState thirdState = new ChannelState();
+        Channel third = channel(thirdState);
+        Channel fourth = channel(new ChannelState());
+        limiter.admit(first, start("first"));
+        limiter.admit(second, start("second"));
+        limiter.admit(third, start("third"));
+        limiter.admit(fourth, start("fourth"));
+
+        //  closed while waiting
+        limiter.cancelled(second);
+        assertEquals(2, limiter.waitingConnections());
+        //  closed without being cancelled yet
+        thirdState.open = false;
+
+        limiter.cancelled(first);
+        runStartTasks();
+        assertEquals(2, started.size());
+        assertEquals("fourth", started.get(1));
+        assertEquals(1, limiter.handshakesInProgress());
+        assertEquals(0, limiter.waitingConnections());
+
+        //  finishing a connection twice does not free another slot
+        limiter.cancelled(first);
+        assertEquals(1, limiter.handshakesInProgress());
+    }
+}
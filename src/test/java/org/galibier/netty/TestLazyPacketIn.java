@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.junit.Test;
+import org.openflow.protocol.OFType;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TestLazyPacketIn {
+    private static LazyPacketIn read(int xid, byte[] packet) {
+        ByteBuffer buffer = ByteBuffer.allocate(18 + packet.length);
+        buffer.put((byte)1).put(OFType.PACKET_IN.getTypeValue()).putShort((short)buffer.capacity()).putInt(xid);
+        buffer.putInt(-1).putShort((short)packet.length).putShort((short)1).put((byte)0).put((byte)0);
+        buffer.put(packet);
+        buffer.flip();
+
+        LazyPacketIn in = new LazyPacketIn();
+        in.readFrom(buffer);
+        return in;
+    }
+
+    @Test
+    public void headerIsDecodedEagerly() {
+        LazyPacketIn in = read(42, new byte[4]);
+        assertEquals(42, in.getXid());
+        assertEquals(22, in.getLengthU());
+        assertEquals(1, in.getInPort());
+        assertFalse(in.isMaterialized());
+    }
+
+    @Test
+    public void headerSettersSurviveMaterialization() {
+        LazyPacketIn in = read(42, new byte[4]);
+        in.setXid(7);
+        in.setLength((short)64);
+
+        in.toString();
+        assertTrue(in.isMaterialized());
+        assertEquals(7, in.getXid());
+        assertEquals(64, in.getLengthU());
+        assertEquals(OFType.PACKET_IN, in.getType());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.galibier.core.OFMessageFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.junit.Test;
+import org.openflow.protocol.OFType;
+
+import static org.junit.Assert.*;
+
+public class TestMessageBatch {
+    private static OFMessageFuture future(OFType type, int xid) {
+        //  a write in progress
+        return new OFMessageFuture(type, xid, new DefaultChannelFuture(null, false));
+    }
+
+    @Test
+    public void rangeIncludesBothEnds() {
+        assertFalse(MessageBatch.xidInRange(10, 3, 9));
+        assertTrue(MessageBatch.xidInRange(10, 3, 10));
+        assertTrue(MessageBatch.xidInRange(10, 3, 13));
+        assertFalse(MessageBatch.xidInRange(10, 3, 14));
+    }
+
+    @Test
+    public void rangeWrapsAround() {
+        //  0xfffffffe, 0xffffffff, 0 and 1
+        int firstXid = 0xfffffffe;
+        assertFalse(MessageBatch.xidInRange(firstXid, 3, 0xfffffffd));
+        assertTrue(MessageBatch.xidInRange(firstXid, 3, 0xfffffffe));
+        assertTrue(MessageBatch.xidInRange(firstXid, 3, 0xffffffff));
+        assertTrue(MessageBatch.xidInRange(firstXid, 3, 0));
+        assertTrue(MessageBatch.xidInRange(firstXid, 3, 1));
+        assertFalse(MessageBatch.xidInRange(firstXid, 3, 2));
+        assertFalse(MessageBatch.xidInRange(firstXid, 3, Integer.MAX_VALUE));
+        assertFalse(MessageBatch.xidInRange(firstXid, 3, Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void failedMessageFailsTheBarrier() {
+        MessageBatch batch = new MessageBatch(1, 2);
+        OFMessageFuture first = future(OFType.FLOW_MOD, 1);
+        OFMessageFuture second = future(OFType.FLOW_MOD, 2);
+        OFMessageFuture barrier = future(OFType.BARRIER_REQUEST, 3);
+        batch.watch(first);
+        batch.watch(second);
+        batch.setBarrier(barrier);
+
+        Exception cause = new Exception("dropped");
+        second.setFailure(cause);
+        assertFalse(first.isDone());
+        assertTrue(barrier.isDone());
+        assertSame(cause, barrier.getCause());
+    }
+
+    @Test
+    public void failureBeforeTheBarrierIsKept() {
+        MessageBatch batch = new MessageBatch(1, 1);
+        OFMessageFuture message = future(OFType.FLOW_MOD, 1);
+        batch.watch(message);
+        Exception cause = new Exception("dropped");
+        message.setFailure(cause);
+
+        OFMessageFuture barrier = future(OFType.BARRIER_REQUEST, 2);
+        batch.setBarrier(barrier);
+        assertSame(cause, barrier.getCause());
+    }
+}
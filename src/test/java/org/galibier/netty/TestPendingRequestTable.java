@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.netty;
+
+import org.galibier.core.OFMessageFuture;
+import org.junit.Test;
+import org.openflow.protocol.OFType;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestPendingRequestTable {
+    private static OFMessageFuture future(int xid) {
+        return new OFMessageFuture(OFType.BARRIER_REQUEST, xid, null);
+    }
+
+    @Test
+    public void putAndRemove() {
+        PendingRequestTable table = new PendingRequestTable(4);
+        OFMessageFuture future = future(1);
+        table.put(1, future, 100);
+        assertEquals(1, table.size());
+        assertSame(future, table.remove(1));
+        assertNull(table.remove(1));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void entriesSurviveGrowthAndRemoval() {
+        PendingRequestTable table = new PendingRequestTable(2);
+        for (int xid = 0; xid < 1000; xid++) {
+            table.put(xid, future(xid), 0);
+        }
+        for (int xid = 0; xid < 1000; xid += 2) {
+            assertEquals(xid, table.remove(xid).transactionId());
+        }
+        for (int xid = 1; xid < 1000; xid += 2) {
+            assertEquals(xid, table.remove(xid).transactionId());
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void refreshedRequestsOutliveTheirDeadline() {
+        PendingRequestTable table = new PendingRequestTable();
+        OFMessageFuture future = future(7);
+        table.put(7, future, 10);
+        assertSame(future, table.refresh(7, 30));
+        assertNull(table.refresh(8, 30));
+
+        assertTrue(table.expire(20).isEmpty());
+        assertEquals(1, table.expire(40).size());
+    }
+
+    @Test
+    public void expiredRequestsAreRemoved() {
+        PendingRequestTable table = new PendingRequestTable();
+        for (int xid = 0; xid < 100; xid++) {
+            table.put(xid, future(xid), xid < 50 ? 10 : 20);
+        }
+
+        List<OFMessageFuture> expired = table.expire(15);
+        assertEquals(50, expired.size());
+        for (OFMessageFuture future: expired) {
+            assertTrue(future.transactionId() < 50);
+        }
+        assertEquals(50, table.size());
+        assertEquals(50, table.expiredRequests());
+        for (int xid = 50; xid < 100; xid++) {
+            assertNotNull(table.remove(xid));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestKeyedSerialExecutor {
+    private static Runnable record(final List<Integer> log, final int value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                log.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void rejectedTaskDoesNotBlockTheKey() {
+        final boolean[] accepting = {false};
+        KeyedSerialExecutor serial = new KeyedSerialExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (!accepting[0]) {
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        });
+        List<Integer> log = new ArrayList<Integer>();
+        try {
+            serial.execute(1, record(log, 1));
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+
+        accepting[0] = true;
+        serial.execute(1, record(log, 2));
+        assertEquals(Arrays.asList(2), log);
+    }
+
+    @Test
+    public void tasksOfAKeyRunInOrder() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        KeyedSerialExecutor serial = new KeyedSerialExecutor(executor);
+        List<Integer> log = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 10000; i++) {
+            serial.execute(7, record(log, i));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(10000, log.size());
+        for (int i = 0; i < log.size(); i++) {
+            assertEquals(i, (int)log.get(i));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestRttEstimator {
+    @Test
+    public void maximumBeforeFirstSample() {
+        RttEstimator estimator = new RttEstimator(10, 1000);
+        assertEquals(1000, estimator.timeoutNanos());
+    }
+
+    @Test
+    public void firstSample() {
+        RttEstimator estimator = new RttEstimator(1, 1000);
+        estimator.update(100);
+        assertEquals(100, estimator.smoothedRttNanos());
+        assertEquals(50, estimator.rttVariationNanos());
+        assertEquals(300, estimator.timeoutNanos());
+    }
+
+    @Test
+    public void steadySamplesShrinkTimeout() {
+        RttEstimator estimator = new RttEstimator(1, 1000);
+        for (int i = 0; i < 100; i++) {
+            estimator.update(100);
+        }
+        assertEquals(100, estimator.smoothedRttNanos());
+        assertTrue(estimator.timeoutNanos() < 110);
+    }
+
+    @Test
+    public void timeoutIsBounded() {
+        RttEstimator estimator = new RttEstimator(200, 250);
+        estimator.update(10);
+        assertEquals(200, estimator.timeoutNanos());
+        estimator.update(1000);
+        assertEquals(250, estimator.timeoutNanos());
+    }
+}
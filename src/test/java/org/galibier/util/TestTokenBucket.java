@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2011, Sho SHIMIZU
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.galibier.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestTokenBucket {
+    private static final long SECOND = 1000L * 1000 * 1000;
+
+    @Test
+    public void burstIsAvailableAtStart() {
+        TokenBucket bucket = new TokenBucket(10, 3, 0);
+        assertTrue(bucket.tryConsume(0));
+        assertTrue(bucket.tryConsume(0));
+        assertTrue(bucket.tryConsume(0));
+        assertFalse(bucket.tryConsume(0));
+    }
+
+    @Test
+    public void tokensAreRefilledAtRate() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0);
+        assertTrue(bucket.tryConsume(0));
+        assertFalse(bucket.tryConsume(SECOND / 20));
+        assertTrue(bucket.tryConsume(SECOND / 10));
+        assertFalse(bucket.tryConsume(SECOND / 10));
+    }
+
+    @Test
+    public void refillIsCappedByBurst() {
+        TokenBucket bucket = new TokenBucket(1000, 2, 0);
+        assertTrue(bucket.tryConsume(10 * SECOND));
+        assertTrue(bucket.tryConsume(10 * SECOND));
+        assertFalse(bucket.tryConsume(10 * SECOND));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroRate() {
+        new TokenBucket(0, 1);
+    }
+}